@@ -0,0 +1,128 @@
+package org.jacoco.extra.bench;
+
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.extra.internal.BranchEvaluator;
+import org.jacoco.extra.internal.BranchExp;
+import org.jacoco.extra.internal.ClassProbesMapper;
+import org.jacoco.extra.internal.CompiledMapping;
+import org.jacoco.extra.internal.CovExp;
+import org.jacoco.extra.internal.ProbeBits;
+import me.zhihan.jacoco.internal.Mapper;
+
+import org.objectweb.asm.ClassReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import scala.collection.JavaConversions;
+
+/** Throughput of evaluating the branches of a mapped class against a probe array. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+  /** The MyC test fixture, or statements per method:percentage of if statements. */
+  @Param({"MyC", "10:10", "10:50", "10:100", "100:10", "100:50", "100:100", "1000:10",
+      "1000:50", "1000:100"})
+  public String input;
+
+  private boolean[] probes;
+  private long[] probeWords;
+  private ProbeBits directProbes;
+  private List<CovExp> javaBranches;
+  private List<me.zhihan.jacoco.internal.CovExp> scalaBranches;
+  private CompiledMapping compiled;
+  private BranchEvaluator evaluator;
+
+  @Setup
+  public void setup() throws IOException {
+    byte[] bytes = SyntheticClasses.input(input);
+
+    final int[] probeCount = new int[1];
+    ClassProbesMapper mapper = new ClassProbesMapper() {
+      @Override
+      public void visitTotalProbeCount(int count) {
+        probeCount[0] = count;
+      }
+    };
+    new ClassReader(bytes).accept(new ClassProbesAdapter(mapper, false), 0);
+    Map<Integer, BranchExp> javaResult = mapper.result();
+    javaBranches = new ArrayList<CovExp>();
+    for (BranchExp exp : javaResult.values()) {
+      javaBranches.addAll(exp.getBranches());
+    }
+    compiled = CompiledMapping.compile(javaResult);
+    evaluator = new BranchEvaluator(compiled);
+
+    scalaBranches = new ArrayList<me.zhihan.jacoco.internal.CovExp>();
+    for (me.zhihan.jacoco.internal.BranchExp exp : JavaConversions.asJavaCollection(
+        new Mapper().analyzeClass(new ClassReader(bytes)).values())) {
+      scalaBranches.addAll(JavaConversions.asJavaCollection(exp.branches()));
+    }
+
+    // Half of the probes are executed.
+    probes = new boolean[probeCount[0]];
+    Random random = new Random(42);
+    for (int i = 0; i < probes.length; i++) {
+      probes[i] = random.nextBoolean();
+    }
+    probeWords = CompiledMapping.pack(probes);
+    directProbes = ProbeBits.direct(probes);
+  }
+
+  @Benchmark
+  public int javaCovExp() {
+    int covered = 0;
+    for (CovExp exp : javaBranches) {
+      if (exp.eval(probes)) {
+        covered++;
+      }
+    }
+    return covered;
+  }
+
+  @Benchmark
+  public int scalaCovExp() {
+    int covered = 0;
+    for (me.zhihan.jacoco.internal.CovExp exp : scalaBranches) {
+      if (me.zhihan.jacoco.internal.CovExp.evaluate(probes, exp)) {
+        covered++;
+      }
+    }
+    return covered;
+  }
+
+  @Benchmark
+  public int compiled() {
+    return evaluator.evaluate(probes).getCoveredCount();
+  }
+
+  @Benchmark
+  public int compiledPacked() {
+    return evaluator.evaluate(probeWords).getCoveredCount();
+  }
+
+  @Benchmark
+  public int compiledDirect() {
+    return evaluator.evaluate(directProbes).getCoveredCount();
+  }
+}
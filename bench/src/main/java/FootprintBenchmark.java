@@ -0,0 +1,83 @@
+package org.jacoco.extra.bench;
+
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.extra.internal.BranchExp;
+import org.jacoco.extra.internal.ClassProbesMapper;
+import org.jacoco.extra.internal.CovExpPool;
+
+import org.objectweb.asm.ClassReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap retained by the mapping results of all the classes of the Guava jar, without an
+ * interning pool, with one pool per class and with one pool for all the classes. The
+ * retained size of each iteration is printed after the iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FootprintBenchmark {
+  @Param({"none", "class", "global"})
+  public String pool;
+
+  private List<byte[]> classes;
+  private long retainedKb;
+
+  @Setup
+  public void setup() throws IOException {
+    classes = SyntheticClasses.loadJar(ImmutableList.class);
+  }
+
+  private static long usedAfterGc() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @Benchmark
+  public List<Map<Integer, BranchExp>> mapJar() {
+    long before = usedAfterGc();
+    CovExpPool global = "global".equals(pool) ? new CovExpPool() : null;
+    List<Map<Integer, BranchExp>> results = new ArrayList<Map<Integer, BranchExp>>();
+    for (byte[] bytes : classes) {
+      CovExpPool classPool = "class".equals(pool) ? new CovExpPool() : global;
+      ClassProbesMapper mapper = new ClassProbesMapper(classPool);
+      new ClassReader(bytes).accept(new ClassProbesAdapter(mapper, false), 0);
+      results.add(mapper.result());
+    }
+    global = null;
+    retainedKb = (usedAfterGc() - before) / 1024;
+    return results;
+  }
+
+  @TearDown(Level.Iteration)
+  public void report() {
+    System.out.println("retained: " + retainedKb + " KB");
+  }
+}
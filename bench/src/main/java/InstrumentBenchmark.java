@@ -0,0 +1,66 @@
+package org.jacoco.extra.bench;
+
+import org.jacoco.core.instr.Instrumenter;
+import org.jacoco.core.runtime.OfflineInstrumentationAccessGenerator;
+import org.jacoco.extra.internal.BatchAnalyzer;
+import org.jacoco.extra.internal.InstrumentingMapper;
+
+import org.objectweb.asm.ClassReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to instrument and map all the classes of the Guava jar, with the JaCoCo instrumenter
+ * and the mapper parsing each class separately, and in one pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InstrumentBenchmark {
+  private List<byte[]> classes;
+  private Instrumenter instrumenter;
+  private InstrumentingMapper instrumentingMapper;
+
+  @Setup
+  public void setup() throws IOException {
+    classes = SyntheticClasses.loadJar(ImmutableList.class);
+    OfflineInstrumentationAccessGenerator runtime = new OfflineInstrumentationAccessGenerator();
+    instrumenter = new Instrumenter(runtime);
+    instrumentingMapper = new InstrumentingMapper(runtime);
+  }
+
+  @Benchmark
+  public void separatePasses(Blackhole blackhole) {
+    for (byte[] bytes : classes) {
+      ClassReader reader = new ClassReader(bytes);
+      blackhole.consume(instrumenter.instrument(reader));
+      blackhole.consume(BatchAnalyzer.map(reader));
+    }
+  }
+
+  @Benchmark
+  public void onePass(Blackhole blackhole) throws IOException {
+    for (byte[] bytes : classes) {
+      blackhole.consume(instrumentingMapper.instrument(bytes));
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package org.jacoco.extra.bench;
+
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.extra.internal.ClassProbesMapper;
+import me.zhihan.jacoco.internal.Mapper;
+
+import org.objectweb.asm.ClassReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput of mapping the probes of a class to its lines. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+  /** The MyC test fixture, or statements per method:percentage of if statements. */
+  @Param({"MyC", "10:10", "10:50", "10:100", "100:10", "100:50", "100:100", "1000:10",
+      "1000:50", "1000:100"})
+  public String input;
+
+  private byte[] bytes;
+
+  @Setup
+  public void setup() throws IOException {
+    bytes = SyntheticClasses.input(input);
+  }
+
+  @Benchmark
+  public Map<Integer, ?> javaMapper() {
+    ClassProbesMapper mapper = new ClassProbesMapper();
+    new ClassReader(bytes).accept(new ClassProbesAdapter(mapper, false), 0);
+    return mapper.result();
+  }
+
+  @Benchmark
+  public Object scalaMapper() {
+    return new Mapper().analyzeClass(new ClassReader(bytes));
+  }
+}
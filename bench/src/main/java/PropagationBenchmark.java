@@ -0,0 +1,66 @@
+package org.jacoco.extra.bench;
+
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.extra.internal.ClassProbesMapper;
+
+import org.objectweb.asm.ClassReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of a single long method. The "ifs" method is made of if statements, with about two
+ * probes per statement. The "switch" method is a straight-line run of the statements followed
+ * by a switch of statements / 10 returning cases, so the predecessors of every probe go
+ * through the whole run. The time per statement should not grow with the method size. The
+ * reference Scala engine of the tests, which walks the predecessors of every probe up to the
+ * method entry, is measured for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropagationBenchmark {
+  @Param({"1000", "2000", "4000", "8000"})
+  public int statements;
+
+  @Param({"ifs", "switch"})
+  public String shape;
+
+  private byte[] bytes;
+
+  @Setup
+  public void setup() {
+    if ("switch".equals(shape)) {
+      bytes = SyntheticClasses.generateSwitch("LongMethod", statements, statements / 10);
+    } else {
+      bytes = SyntheticClasses.generate("LongMethod", 1, statements, 100);
+    }
+  }
+
+  @Benchmark
+  public Map<Integer, ?> longMethod() {
+    ClassProbesMapper mapper = new ClassProbesMapper();
+    new ClassReader(bytes).accept(new ClassProbesAdapter(mapper, false), 0);
+    return mapper.result();
+  }
+
+  @Benchmark
+  public Object referenceMapper() {
+    return new me.zhihan.jacoco.internal.reference.Mapper().analyzeClass(new ClassReader(bytes));
+  }
+}
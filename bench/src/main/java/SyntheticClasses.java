@@ -0,0 +1,156 @@
+package org.jacoco.extra.bench;
+
+import me.zhihan.jacoco.internal.MyC;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.io.ByteStreams;
+
+/** Class definitions used as benchmark inputs. */
+public final class SyntheticClasses {
+  private SyntheticClasses() {
+  }
+
+  /**
+   * Generate a class with static methods {@code int m<i>(int)}. Every method has the given
+   * number of statements on consecutive lines, and branchPercent percent of them are if
+   * statements, evenly spread over the method.
+   */
+  public static byte[] generate(String name, int methods, int statements, int branchPercent) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    int line = 1;
+    for (int m = 0; m < methods; m++) {
+      MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m" + m,
+          "(I)I", null, null);
+      mv.visitCode();
+      for (int s = 0; s < statements; s++) {
+        Label start = new Label();
+        mv.visitLabel(start);
+        mv.visitLineNumber(line++, start);
+        if ((s * branchPercent) / 100 != ((s + 1) * branchPercent) / 100) {
+          Label skip = new Label();
+          mv.visitVarInsn(Opcodes.ILOAD, 0);
+          mv.visitJumpInsn(Opcodes.IFLE, skip);
+          mv.visitIincInsn(0, -1);
+          mv.visitLabel(skip);
+        } else {
+          mv.visitIincInsn(0, 1);
+        }
+      }
+      mv.visitVarInsn(Opcodes.ILOAD, 0);
+      mv.visitInsn(Opcodes.IRETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  /**
+   * Generate a class with a static method {@code int m(int)} of the given number of
+   * straight-line statements on consecutive lines, followed by a switch with the given number
+   * of cases. Every case falls through to the next one, so JaCoCo puts the probes of all the
+   * cases on the switch, at the end of the same straight-line run.
+   */
+  public static byte[] generateSwitch(String name, int statements, int cases) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "m",
+        "(I)I", null, null);
+    mv.visitCode();
+    int line = 1;
+    for (int s = 0; s < statements; s++) {
+      Label start = new Label();
+      mv.visitLabel(start);
+      mv.visitLineNumber(line++, start);
+      mv.visitIincInsn(0, 1);
+    }
+    Label dflt = new Label();
+    Label[] labels = new Label[cases];
+    for (int c = 0; c < cases; c++) {
+      labels[c] = new Label();
+    }
+    mv.visitVarInsn(Opcodes.ILOAD, 0);
+    mv.visitTableSwitchInsn(0, cases - 1, dflt, labels);
+    for (int c = 0; c < cases; c++) {
+      mv.visitLabel(labels[c]);
+      mv.visitLineNumber(line++, labels[c]);
+      mv.visitIincInsn(0, 1);
+    }
+    mv.visitLabel(dflt);
+    mv.visitLineNumber(line++, dflt);
+    mv.visitVarInsn(Opcodes.ILOAD, 0);
+    mv.visitInsn(Opcodes.IRETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  /**
+   * The class of a benchmark input, MyC for the test fixture, or statements:branchPercent
+   * for a class generated with 10 such methods.
+   */
+  public static byte[] input(String spec) throws IOException {
+    if ("MyC".equals(spec)) {
+      return load(MyC.class);
+    }
+    int colon = spec.indexOf(':');
+    return generate("Synthetic", 10, Integer.parseInt(spec.substring(0, colon)),
+        Integer.parseInt(spec.substring(colon + 1)));
+  }
+
+  /** Read the definition of a class on the class path, e.g. the MyC test fixture. */
+  public static byte[] load(Class<?> clazz) throws IOException {
+    InputStream in = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/')
+        + ".class");
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Read the definitions of all the classes in the jar file which contains the given class. */
+  public static List<byte[]> loadJar(Class<?> clazz) throws IOException {
+    File jar;
+    try {
+      jar = new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI());
+    } catch (URISyntaxException e) {
+      throw new IOException(e);
+    }
+    List<byte[]> classes = new ArrayList<byte[]>();
+    ZipFile zip = new ZipFile(jar);
+    try {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.getName().endsWith(".class")) {
+          InputStream in = zip.getInputStream(entry);
+          try {
+            classes.add(ByteStreams.toByteArray(in));
+          } finally {
+            in.close();
+          }
+        }
+      }
+    } finally {
+      zip.close();
+    }
+    return classes;
+  }
+}
@@ -0,0 +1,172 @@
+package org.jacoco.extra.internal;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Analyzes the branch coverage of many classes in parallel.
+ *
+ * <p>Class files are read from directories and jar files by a {@link ClassScanner}. The
+ * probe mapping and the evaluation of each class with execution data run as tasks of a
+ * ForkJoin pool, on the thread which read the class. When a {@link MappingProvider} such as
+ * a {@link MappingCache} is given, the mappings of unchanged classes are taken from it
+ * instead of analyzing the bytecode again.
+ */
+public class BatchAnalyzer {
+  // Number of classes analyzed by one task without further splitting.
+  private static final int THRESHOLD = 16;
+
+  private final ExecutionDataStore store;
+  private final ForkJoinPool pool;
+  private final MappingProvider provider;
+  private PipelineMetrics metrics = null;
+
+  public BatchAnalyzer(ExecutionDataStore store) {
+    this(store, ForkJoinPool.commonPool());
+  }
+
+  public BatchAnalyzer(ExecutionDataStore store, ForkJoinPool pool) {
+    this(store, pool, null);
+  }
+
+  public BatchAnalyzer(ExecutionDataStore store, ForkJoinPool pool, MappingProvider provider) {
+    this.store = store;
+    this.pool = pool;
+    this.provider = provider;
+  }
+
+  /** Record the time spent in each stage of the analysis, or nothing if metrics is null. */
+  public void setMetrics(PipelineMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /** Map the probes of one class to its lines. */
+  public static CompiledMapping map(ClassReader reader) {
+    return map(reader, 0, null);
+  }
+
+  /**
+   * Map the probes of one class to its lines, recording the time spent in each stage in
+   * metrics if it is not null.
+   *
+   * @param size the size of the class file, used to group classes in the metrics
+   */
+  public static CompiledMapping map(ClassReader reader, int size, PipelineMetrics metrics) {
+    ClassProbesMapper mapper = new ClassProbesMapper(null, false, metrics != null);
+    ClassProbesAdapter adapter = new ClassProbesAdapter(mapper, false);
+    if (metrics == null) {
+      reader.accept(adapter, 0);
+      return CompiledMapping.compile(mapper.result());
+    }
+    long start = System.nanoTime();
+    reader.accept(adapter, 0);
+    long visited = System.nanoTime();
+    CompiledMapping mapping = CompiledMapping.compile(mapper.result());
+    long compiled = System.nanoTime();
+
+    String name = reader.getClassName();
+    long resolve = mapper.getResolveNanos();
+    long merge = mapper.getMergeNanos();
+    metrics.record(PipelineMetrics.Stage.VISIT, name, size, visited - start - resolve - merge);
+    metrics.record(PipelineMetrics.Stage.RESOLVE, name, size, resolve);
+    metrics.record(PipelineMetrics.Stage.MERGE, name, size, merge);
+    metrics.record(PipelineMetrics.Stage.COMPILE, name, size, compiled - visited);
+    return mapping;
+  }
+
+  /**
+   * Analyze all the classes in the given directories and jar files.
+   *
+   * @return the branch coverage of each class with execution data, keyed by the VM name of
+   *     the class
+   */
+  public Map<String, BranchCoverage> analyze(List<File> roots) throws IOException {
+    final Map<String, BranchCoverage> results = new ConcurrentHashMap<String, BranchCoverage>();
+    new ClassScanner(pool).scan(roots, new ClassScanner.ClassHandler() {
+      @Override
+      public void handle(byte[] buffer, int length) {
+        analyzeClass(buffer, length, results);
+      }
+    });
+    return results;
+  }
+
+  /** Analyze class definitions given as bytes. */
+  public Map<String, BranchCoverage> analyzeClasses(List<byte[]> classes) {
+    Map<String, BranchCoverage> results = new ConcurrentHashMap<String, BranchCoverage>();
+    pool.invoke(new AnalyzeTask(classes, 0, classes.size(), results));
+    return results;
+  }
+
+  private void analyzeClass(byte[] bytes, int length, Map<String, BranchCoverage> results) {
+    long classId = ClassScanner.checksum(bytes, 0, length);
+    ExecutionData execData = store.get(classId);
+    if (execData == null) {
+      return;
+    }
+    ClassReader reader = new ClassReader(bytes, 0, length);
+    BranchMapping mapping;
+    if (provider == null) {
+      mapping = map(reader, length, metrics);
+    } else {
+      long start = metrics == null ? 0 : System.nanoTime();
+      try {
+        mapping = provider.get(classId, reader);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (metrics != null) {
+        metrics.record(PipelineMetrics.Stage.PROVIDE, reader.getClassName(), length,
+            System.nanoTime() - start);
+      }
+    }
+    BranchEvaluator evaluator = new BranchEvaluator(mapping);
+    long start = metrics == null ? 0 : System.nanoTime();
+    BranchCoverage coverage = evaluator.evaluate(execData.getProbes());
+    if (metrics != null) {
+      metrics.record(PipelineMetrics.Stage.EVALUATE, reader.getClassName(), length,
+          System.nanoTime() - start);
+    }
+    results.put(reader.getClassName(), coverage);
+  }
+
+  /** Analyze the classes in [from, to), splitting the range until it is small enough. */
+  private class AnalyzeTask extends RecursiveAction {
+    private final List<byte[]> classes;
+    private final int from;
+    private final int to;
+    private final Map<String, BranchCoverage> results;
+
+    AnalyzeTask(List<byte[]> classes, int from, int to, Map<String, BranchCoverage> results) {
+      this.classes = classes;
+      this.from = from;
+      this.to = to;
+      this.results = results;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          analyzeClass(classes.get(i), classes.get(i).length, results);
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new AnalyzeTask(classes, from, mid, results),
+            new AnalyzeTask(classes, mid, to, results));
+      }
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package org.jacoco.extra.internal;
+
+/**
+ * The result of evaluating a compiled mapping against one probe array.
+ *
+ * <p>Branches are indexed in the same way as in the {@link BranchMapping}, one bit
+ * per branch.
+ */
+public class BranchCoverage {
+  private final BranchMapping mapping;
+  private final long[] covered;
+
+  BranchCoverage(BranchMapping mapping, long[] covered) {
+    this.mapping = mapping;
+    this.covered = covered;
+  }
+
+  public BranchMapping getMapping() {
+    return mapping;
+  }
+
+  /** Returns true if the branch is covered. */
+  public boolean isCovered(int branch) {
+    return (covered[branch >>> 6] & (1L << branch)) != 0L;
+  }
+
+  /** Returns true if the j-th branch of the idx-th line is covered. */
+  public boolean isCovered(int idx, int j) {
+    return isCovered(mapping.getFirstBranch(idx) + j);
+  }
+
+  /** Number of covered branches of the idx-th line. */
+  public int getCoveredCount(int idx) {
+    int first = mapping.getFirstBranch(idx);
+    return getCoveredCount(first, first + mapping.getBranchCount(idx));
+  }
+
+  /** Number of covered branches in [from, to). */
+  public int getCoveredCount(int from, int to) {
+    if (from >= to) {
+      return 0;
+    }
+    int first = from >>> 6;
+    int last = (to - 1) >>> 6;
+    long lowMask = -1L << from;
+    long highMask = -1L >>> (63 - ((to - 1) & 63));
+    if (first == last) {
+      return Long.bitCount(covered[first] & lowMask & highMask);
+    }
+    int count = Long.bitCount(covered[first] & lowMask);
+    for (int w = first + 1; w < last; w++) {
+      count += Long.bitCount(covered[w]);
+    }
+    return count + Long.bitCount(covered[last] & highMask);
+  }
+
+  /** Number of covered branches of all the lines. */
+  public int getCoveredCount() {
+    int count = 0;
+    for (long word : covered) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+}
@@ -0,0 +1,39 @@
+package org.jacoco.extra.internal;
+
+/**
+ * Evaluates the branches of a branch mapping against probe arrays.
+ *
+ * <p>The evaluator keeps no state between calls, so one instance can be used to
+ * evaluate the same mapping against many execution data sessions, from any number of
+ * threads.
+ */
+public class BranchEvaluator {
+  private final BranchMapping mapping;
+
+  public BranchEvaluator(BranchMapping mapping) {
+    this.mapping = mapping;
+  }
+
+  public BranchMapping getMapping() {
+    return mapping;
+  }
+
+  /** Evaluate all the branches using the given values of probes. */
+  public BranchCoverage evaluate(final boolean[] probes) {
+    return evaluate(CompiledMapping.pack(probes));
+  }
+
+  /** Evaluate all the branches using probes packed by {@link CompiledMapping#pack}. */
+  public BranchCoverage evaluate(final long[] probeWords) {
+    long[] covered = new long[(mapping.getTotalBranchCount() + 63) >>> 6];
+    mapping.evaluate(probeWords, covered);
+    return new BranchCoverage(mapping, covered);
+  }
+
+  /** Evaluate all the branches using packed probes, which may be off-heap. */
+  public BranchCoverage evaluate(ProbeBits probes) {
+    long[] covered = new long[(mapping.getTotalBranchCount() + 63) >>> 6];
+    mapping.evaluate(probes, covered);
+    return new BranchCoverage(mapping, covered);
+  }
+}
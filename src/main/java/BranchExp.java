@@ -4,12 +4,9 @@ import java.util.List;
 
 public class BranchExp extends CovExp {
   private final List<CovExp> branches;
-  private boolean hasValue;
-  private boolean value;
 
   public BranchExp(List<CovExp> branches) {
     this.branches = branches;
-    hasValue = false;
   }
 
   public List<CovExp> getBranches() {
@@ -32,19 +29,24 @@ public class BranchExp extends CovExp {
     branches.addAll(other.branches);
   }
 
+  /** Evaluate the expression. No state is kept, so it can be evaluated concurrently. */
   @Override
   public boolean eval(final boolean[] probes) {
-    if (hasValue) {
-      return value;
+    for (CovExp exp: branches) {
+      if (exp.eval(probes)) {
+        return true;
+      }
     }
-    value = false;
+    return false;
+  }
+
+  @Override
+  public boolean eval(ProbeBits probes) {
     for (CovExp exp: branches) {
-      value = exp.eval(probes);
-      if (value) {
-        break;
+      if (exp.eval(probes)) {
+        return true;
       }
     }
-  hasValue = value; // cached
-  return value;
+    return false;
   }
 }
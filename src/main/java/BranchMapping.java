@@ -0,0 +1,57 @@
+package org.jacoco.extra.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Read access to a compiled line to branch mapping.
+ *
+ * <p>Lines are indexed in ascending line number order. The branches of all the lines are
+ * numbered consecutively, line by line, so a branch is identified by a single index.
+ */
+public interface BranchMapping {
+  /** Number of lines with branches. */
+  int getLineCount();
+
+  /** Line number of the idx-th line. */
+  int getLine(int idx);
+
+  /** Index of the first branch of the idx-th line. */
+  int getFirstBranch(int idx);
+
+  /** Number of branches of the idx-th line. */
+  int getBranchCount(int idx);
+
+  /** Number of branches of all the lines. */
+  int getTotalBranchCount();
+
+  /** Returns the index of a line number, or a negative value if the line has no branches. */
+  int indexOfLine(int line);
+
+  /** Index of the probe word corresponding to the first mask word of a branch. */
+  int getMaskStart(int branch);
+
+  /** Number of mask words of a branch. */
+  int getMaskLength(int branch);
+
+  /** The k-th mask word of a branch, bit i is set if probe 64 * (start + k) + i is used. */
+  long getMaskWord(int branch, int k);
+
+  /** Evaluate a branch using probes packed by {@link CompiledMapping#pack}. */
+  boolean isCovered(int branch, final long[] probeWords);
+
+  /**
+   * Evaluate all the branches using probes packed by {@link CompiledMapping#pack}, setting
+   * bit b of covered for every covered branch b.
+   */
+  void evaluate(final long[] probeWords, long[] covered);
+
+  /** Evaluate a branch using packed probes, which may be off-heap. */
+  boolean isCovered(int branch, ProbeBits probes);
+
+  /** Evaluate all the branches using packed probes, which may be off-heap. */
+  void evaluate(ProbeBits probes, long[] covered);
+
+  /** Write the mapping in the binary layout of {@link CompiledMapping#write}. */
+  void write(DataOutput out) throws IOException;
+}
@@ -5,44 +5,236 @@ import org.jacoco.core.internal.flow.ClassProbesVisitor;
 
 import org.objectweb.asm.FieldVisitor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A visitor that maps each source code line to the probes corresponding to the lines.
+ *
+ * <p>In the lazy mode, the methods are only recorded while visiting. The result of a method
+ * is resolved when it is requested with {@link #getMethodResult}, and the lines of the class
+ * when {@link #result} is called, so tools which only look at a few methods of a class do not
+ * pay for resolving all of them.
  */
 public class ClassProbesMapper extends ClassProbesVisitor {
   private Map<Integer, BranchExp> classLineToBranchExp;
+  private final CovExpPool pool;
+  private final boolean lazy;
+
+  // Time spent at the end of the methods if timed, see PipelineMetrics.
+  private final boolean timed;
+  private long resolveNanos = 0;
+  private long mergeNanos = 0;
+
+  // The methods, and for each method the (line, offset, count) triples of the ranges of its
+  // branches in the lines of the result.
+  private final List<String> methodNames = new ArrayList<String>();
+  private final List<String> methodDescs = new ArrayList<String>();
+  private final List<int[]> methodRanges = new ArrayList<int[]>();
+
+  // Lazy mode: the method mappers by name + desc, and the number of methods merged so far.
+  private final List<MethodProbesMapper> methods = new ArrayList<MethodProbesMapper>();
+  private final Map<String, Integer> methodIndex = new HashMap<String, Integer>();
+  private int mergedMethods = 0;
+
+  // The lines of the result merged from several methods, whose BranchExps are copies owned
+  // by the result, not interned yet.
+  private final Set<Integer> mergedLines = new HashSet<Integer>();
+
   public Map<Integer, BranchExp> result() {
+    if (lazy) {
+      for (; mergedMethods < methods.size(); mergedMethods++) {
+        MethodProbesMapper mapper = methods.get(mergedMethods);
+        resolveMethod(mapper);
+        merge(mergedMethods, mapper.result());
+      }
+    }
+    if (pool != null) {
+      // Lines merged from several methods are complete now, intern them.
+      for (Integer line : mergedLines) {
+        classLineToBranchExp.put(line,
+            pool.branch(classLineToBranchExp.get(line).getBranches()));
+      }
+    }
+    mergedLines.clear();
     return classLineToBranchExp;
   }
 
   /** Create a new probe mapper object. */
   public ClassProbesMapper() {
+    this(null);
+  }
+
+  /**
+   * Create a new probe mapper object which takes its CovExps from the given pool. The
+   * BranchExps in the result are then immutable and shared with other results of the pool.
+   */
+  public ClassProbesMapper(CovExpPool pool) {
+    this(pool, false);
+  }
+
+  /**
+   * Create a new probe mapper object, which resolves the methods on demand if lazy is true.
+   *
+   * @param pool the pool of the CovExps, or null
+   */
+  public ClassProbesMapper(CovExpPool pool, boolean lazy) {
+    this(pool, lazy, false);
+  }
+
+  /**
+   * Create a new probe mapper object, which also measures the time spent at the end of the
+   * methods if timed is true, see {@link #getResolveNanos} and {@link #getMergeNanos}.
+   *
+   * @param pool the pool of the CovExps, or null
+   */
+  public ClassProbesMapper(CovExpPool pool, boolean lazy, boolean timed) {
     classLineToBranchExp = new HashMap<Integer, BranchExp>();
+    this.pool = pool;
+    this.lazy = lazy;
+    this.timed = timed;
   }
 
   /** Returns a visitor for mapping method code. */
   @Override
   public MethodProbesVisitor visitMethod(int access, String name, String desc, String signature,
       String[] exceptions) {
-    return new MethodProbesMapper() {
+    methodNames.add(name);
+    methodDescs.add(desc);
+    final int method = methodRanges.size();
+    methodRanges.add(new int[0]);
+    if (lazy) {
+      MethodProbesMapper mapper = new MethodProbesMapper(pool) {
+        @Override
+        public void visitEnd() {
+          // Resolved on demand.
+        }
+      };
+      methods.add(mapper);
+      methodIndex.put(name + desc, method);
+      return mapper;
+    }
+    return new MethodProbesMapper(pool) {
       @Override
       public void visitEnd() {
-        super.visitEnd();
-
-        for (Map.Entry<Integer, BranchExp> entry: result().entrySet()) {
-          BranchExp branchExp = classLineToBranchExp.get(entry.getKey());
-          if (branchExp == null) {
-            classLineToBranchExp.put(entry.getKey(), entry.getValue());
-          } else {
-            branchExp.merge(entry.getValue());
-          }
-        }
+        resolveMethod(this);
+        merge(method, result());
       }
     };
   }
 
+  private void resolveMethod(MethodProbesMapper mapper) {
+    if (!timed) {
+      mapper.resolve();
+      return;
+    }
+    long start = System.nanoTime();
+    mapper.resolve();
+    resolveNanos += System.nanoTime() - start;
+  }
+
+  /** Merge the lines of the m-th method into the lines of the class. */
+  private void merge(int method, Map<Integer, BranchExp> lines) {
+    long start = timed ? System.nanoTime() : 0;
+    int[] ranges = new int[3 * lines.size()];
+    int r = 0;
+    for (Map.Entry<Integer, BranchExp> entry: lines.entrySet()) {
+      BranchExp branchExp = classLineToBranchExp.get(entry.getKey());
+      ranges[r++] = entry.getKey();
+      ranges[r++] = branchExp == null ? 0 : branchExp.getBranches().size();
+      ranges[r++] = entry.getValue().getBranches().size();
+      if (branchExp == null) {
+        classLineToBranchExp.put(entry.getKey(), entry.getValue());
+      } else {
+        // The BranchExp of a method may also be a branch of its other lines, so it is never
+        // merged into: the first merge of a line copies it.
+        if (mergedLines.add(entry.getKey())) {
+          branchExp = new BranchExp(new ArrayList<CovExp>(branchExp.getBranches()));
+          classLineToBranchExp.put(entry.getKey(), branchExp);
+        }
+        branchExp.merge(entry.getValue());
+      }
+    }
+    methodRanges.set(method, ranges);
+    if (timed) {
+      mergeNanos += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * The lines of the method with the given name and descriptor, resolved if needed, or null
+   * if the class has no such method. Only available in the lazy mode.
+   */
+  public Map<Integer, BranchExp> getMethodResult(String name, String desc) {
+    if (!lazy) {
+      throw new IllegalStateException("Method results are only kept in the lazy mode");
+    }
+    Integer m = methodIndex.get(name + desc);
+    return m == null ? null : getMethodResult(m);
+  }
+
+  /** The lines of the m-th method, resolved if needed. Only available in the lazy mode. */
+  public Map<Integer, BranchExp> getMethodResult(int m) {
+    if (!lazy) {
+      throw new IllegalStateException("Method results are only kept in the lazy mode");
+    }
+    MethodProbesMapper mapper = methods.get(m);
+    resolveMethod(mapper);
+    return mapper.result();
+  }
+
+  /**
+   * The probes of each line of the m-th method, including the lines without branches, see
+   * {@link MethodProbesMapper#getLineProbes}. Only available in the lazy mode.
+   */
+  public Map<Integer, int[]> getMethodLineProbes(int m) {
+    if (!lazy) {
+      throw new IllegalStateException("Method results are only kept in the lazy mode");
+    }
+    MethodProbesMapper mapper = methods.get(m);
+    resolveMethod(mapper);
+    return mapper.getLineProbes();
+  }
+
+  /** Number of methods visited. */
+  public int getMethodCount() {
+    return methodNames.size();
+  }
+
+  /** Name of the m-th method. */
+  public String getMethodName(int m) {
+    return methodNames.get(m);
+  }
+
+  /** Descriptor of the m-th method. */
+  public String getMethodDesc(int m) {
+    return methodDescs.get(m);
+  }
+
+  /**
+   * The branches of the m-th method in the result, as (line, offset, count) triples: the
+   * method has count branches of the line, starting from its offset-th branch.
+   */
+  public int[] getMethodRanges(int m) {
+    result(); // Merges the lines of the methods in the lazy mode
+    return Arrays.copyOf(methodRanges.get(m), methodRanges.get(m).length);
+  }
+
+  /** Time spent resolving the coverage expressions at the end of the methods, if timed. */
+  public long getResolveNanos() {
+    return resolveNanos;
+  }
+
+  /** Time spent merging the lines of the methods into the lines of the class, if timed. */
+  public long getMergeNanos() {
+    return mergeNanos;
+  }
+
   /** Returns a visitor for field. */
     @Override
     public FieldVisitor visitField(int access, String name, String desc, String signature,
@@ -0,0 +1,234 @@
+package org.jacoco.extra.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the class files of directories and jar files in parallel.
+ *
+ * <p>The directories are walked and the jar entries listed up front, then the class files
+ * are read and handled by the tasks of a ForkJoin pool, so at most as many classes as the
+ * parallelism of the pool are in memory at a time. Each worker thread reads into its own
+ * buffer which is reused for all the classes it reads.
+ */
+public class ClassScanner {
+  // Number of classes read by one task without further splitting.
+  private static final int THRESHOLD = 16;
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+  // The table of org.jacoco.core.internal.data.CRC64, which only checksums whole arrays.
+  // The class ids must be exactly those of JaCoCo, ClassScannerTest checks it.
+  private static final long POLY64REV = 0xd800000000000000L;
+  private static final long[] LOOKUPTABLE = new long[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      long v = i;
+      for (int j = 0; j < 8; j++) {
+        if ((v & 1) == 1) {
+          v = (v >>> 1) ^ POLY64REV;
+        } else {
+          v = (v >>> 1);
+        }
+      }
+      LOOKUPTABLE[i] = v;
+    }
+  }
+
+  /** Receives the class files read by a scanner. */
+  public interface ClassHandler {
+    /**
+     * Handle the class file in buffer[0, length). The buffer is reused once this method
+     * returns, so it must not be kept. This method is called concurrently.
+     */
+    void handle(byte[] buffer, int length) throws IOException;
+  }
+
+  private final ForkJoinPool pool;
+  private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[INITIAL_BUFFER_SIZE];
+    }
+  };
+
+  public ClassScanner() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  public ClassScanner(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * The CRC64 checksum of data[offset, offset + length), the same as the JaCoCo class id of
+   * a class file, computed in place: the classes are read into larger reused buffers.
+   */
+  public static long checksum(byte[] data, int offset, int length) {
+    long sum = 0;
+    for (int i = offset; i < offset + length; i++) {
+      int lookupidx = ((int) sum ^ data[i]) & 0xff;
+      sum = (sum >>> 8) ^ LOOKUPTABLE[lookupidx];
+    }
+    return sum;
+  }
+
+  /** Read all the class files in the given directories and jar files. */
+  public void scan(List<File> roots, ClassHandler handler) throws IOException {
+    List<ZipFile> jars = new ArrayList<ZipFile>();
+    try {
+      List<Source> sources = new ArrayList<Source>();
+      for (File root : roots) {
+        if (root.isDirectory()) {
+          listDirectory(root.toPath(), sources);
+        } else {
+          ZipFile jar = new ZipFile(root);
+          jars.add(jar);
+          listJar(jar, sources);
+        }
+      }
+      pool.invoke(new ScanTask(sources, 0, sources.size(), handler));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      for (ZipFile jar : jars) {
+        jar.close();
+      }
+    }
+  }
+
+  private static void listDirectory(Path dir, List<Source> sources) throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      Iterator<Path> it = paths.iterator();
+      while (it.hasNext()) {
+        Path path = it.next();
+        if (path.toString().endsWith(".class") && Files.isRegularFile(path)) {
+          sources.add(new FileSource(path));
+        }
+      }
+    }
+  }
+
+  private static void listJar(ZipFile jar, List<Source> sources) {
+    for (ZipEntry entry : Collections.list(jar.entries())) {
+      if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+        sources.add(new ZipSource(jar, entry));
+      }
+    }
+  }
+
+  private void read(Source source, ClassHandler handler) throws IOException {
+    byte[] buffer = buffers.get();
+    long size = source.size();
+    if (size > buffer.length) {
+      buffer = new byte[(int) Math.max(size, 2L * buffer.length)];
+    }
+    int length = 0;
+    InputStream in = source.open();
+    try {
+      int n;
+      while ((n = in.read(buffer, length, buffer.length - length)) != -1) {
+        length += n;
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+      }
+    } finally {
+      in.close();
+    }
+    buffers.set(buffer);
+    handler.handle(buffer, length);
+  }
+
+  /** A class file to read. */
+  private interface Source {
+    /** The size of the class file, or -1 if unknown. */
+    long size() throws IOException;
+
+    InputStream open() throws IOException;
+  }
+
+  private static class FileSource implements Source {
+    private final Path path;
+
+    FileSource(Path path) {
+      this.path = path;
+    }
+
+    @Override
+    public long size() throws IOException {
+      return Files.size(path);
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+      return Files.newInputStream(path);
+    }
+  }
+
+  private static class ZipSource implements Source {
+    private final ZipFile jar;
+    private final ZipEntry entry;
+
+    ZipSource(ZipFile jar, ZipEntry entry) {
+      this.jar = jar;
+      this.entry = entry;
+    }
+
+    @Override
+    public long size() {
+      return entry.getSize();
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+      return jar.getInputStream(entry);
+    }
+  }
+
+  /** Read the classes in [from, to), splitting the range until it is small enough. */
+  private class ScanTask extends RecursiveAction {
+    private final List<Source> sources;
+    private final int from;
+    private final int to;
+    private final ClassHandler handler;
+
+    ScanTask(List<Source> sources, int from, int to, ClassHandler handler) {
+      this.sources = sources;
+      this.from = from;
+      this.to = to;
+      this.handler = handler;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          try {
+            read(sources.get(i), handler);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ScanTask(sources, from, mid, handler),
+            new ScanTask(sources, mid, to, handler));
+      }
+    }
+  }
+}
@@ -0,0 +1,295 @@
+package org.jacoco.extra.internal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compiled form of a line to BranchExp mapping.
+ *
+ * <p>Every branch of a line is the disjunction of a fixed set of probes, so a
+ * branch is stored as a bit mask over the probe array. Only the words between the
+ * lowest and the highest probe of a branch are stored. Evaluating a branch is then
+ * a few AND operations on packed probe words instead of a walk over the CovExp tree.
+ *
+ * <p>A compiled mapping is immutable, so one instance can be cached per class and
+ * shared by any number of threads.
+ */
+public class CompiledMapping implements BranchMapping {
+  // Sorted line numbers.
+  private final int[] lines;
+  // The branches of line i are [lineOffsets[i], lineOffsets[i + 1]).
+  private final int[] lineOffsets;
+  // Index of the probe word corresponding to the first mask word of a branch.
+  private final int[] wordStart;
+  // The mask words of branch b are masks[maskOffsets[b]] .. masks[maskOffsets[b + 1] - 1].
+  private final int[] maskOffsets;
+  private final long[] masks;
+
+  CompiledMapping(int[] lines, int[] lineOffsets, int[] wordStart, int[] maskOffsets,
+      long[] masks) {
+    this.lines = lines;
+    this.lineOffsets = lineOffsets;
+    this.wordStart = wordStart;
+    this.maskOffsets = maskOffsets;
+    this.masks = masks;
+  }
+
+  /** Compile the result of a ClassProbesMapper or MethodProbesMapper. */
+  public static CompiledMapping compile(Map<Integer, BranchExp> lineToBranchExp) {
+    Map<Integer, BranchExp> sorted = new TreeMap<Integer, BranchExp>(lineToBranchExp);
+
+    int branchCount = 0;
+    for (BranchExp exp : sorted.values()) {
+      branchCount += exp.getBranches().size();
+    }
+
+    int[] lines = new int[sorted.size()];
+    int[] lineOffsets = new int[sorted.size() + 1];
+    int[] wordStart = new int[branchCount];
+    int[] maskOffsets = new int[branchCount + 1];
+    long[][] branchMasks = new long[branchCount][];
+
+    int lineIdx = 0;
+    int branch = 0;
+    int maskCount = 0;
+    BitSet probes = new BitSet();
+    for (Map.Entry<Integer, BranchExp> entry : sorted.entrySet()) {
+      lines[lineIdx] = entry.getKey();
+      lineOffsets[lineIdx] = branch;
+      for (CovExp exp : entry.getValue().getBranches()) {
+        probes.clear();
+        collectProbes(exp, probes);
+        long[] words = probes.toLongArray();
+        int first = 0;
+        while (first < words.length && words[first] == 0L) {
+          first++;
+        }
+        wordStart[branch] = first;
+        branchMasks[branch] = words;
+        maskOffsets[branch] = maskCount;
+        maskCount += words.length - first;
+        branch++;
+      }
+      lineIdx++;
+    }
+    lineOffsets[lineIdx] = branch;
+    maskOffsets[branch] = maskCount;
+
+    long[] masks = new long[maskCount];
+    for (int b = 0; b < branchCount; b++) {
+      long[] words = branchMasks[b];
+      System.arraycopy(words, wordStart[b], masks, maskOffsets[b], words.length - wordStart[b]);
+    }
+    return new CompiledMapping(lines, lineOffsets, wordStart, maskOffsets, masks);
+  }
+
+  // Collect the ids of all the probes referred by the expression.
+  private static void collectProbes(CovExp exp, BitSet probes) {
+    if (exp instanceof ProbeExp) {
+      probes.set(((ProbeExp) exp).getProbeId());
+    } else {
+      for (CovExp branch : ((BranchExp) exp).getBranches()) {
+        collectProbes(branch, probes);
+      }
+    }
+  }
+
+  /** Pack a probe array into 64-bit words, probe i is bit (i % 64) of word (i / 64). */
+  public static long[] pack(final boolean[] probes) {
+    long[] words = new long[(probes.length + 63) >>> 6];
+    for (int i = 0; i < probes.length; i++) {
+      if (probes[i]) {
+        words[i >>> 6] |= 1L << i;
+      }
+    }
+    return words;
+  }
+
+  @Override
+  public int getLineCount() {
+    return lines.length;
+  }
+
+  @Override
+  public int getLine(int idx) {
+    return lines[idx];
+  }
+
+  @Override
+  public int getFirstBranch(int idx) {
+    return lineOffsets[idx];
+  }
+
+  @Override
+  public int getBranchCount(int idx) {
+    return lineOffsets[idx + 1] - lineOffsets[idx];
+  }
+
+  @Override
+  public int getTotalBranchCount() {
+    return wordStart.length;
+  }
+
+  @Override
+  public int indexOfLine(int line) {
+    return Arrays.binarySearch(lines, line);
+  }
+
+  @Override
+  public int getMaskStart(int branch) {
+    return wordStart[branch];
+  }
+
+  @Override
+  public int getMaskLength(int branch) {
+    return maskOffsets[branch + 1] - maskOffsets[branch];
+  }
+
+  @Override
+  public long getMaskWord(int branch, int k) {
+    return masks[maskOffsets[branch] + k];
+  }
+
+  @Override
+  public boolean isCovered(int branch, final long[] probeWords) {
+    int w = wordStart[branch];
+    for (int k = maskOffsets[branch]; k < maskOffsets[branch + 1]; k++, w++) {
+      if (w >= probeWords.length) {
+        return false;
+      }
+      if ((masks[k] & probeWords[w]) != 0L) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isCovered(int branch, ProbeBits probes) {
+    int w = wordStart[branch];
+    int wordCount = probes.getWordCount();
+    for (int k = maskOffsets[branch]; k < maskOffsets[branch + 1] && w < wordCount; k++, w++) {
+      if ((masks[k] & probes.getWord(w)) != 0L) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void evaluate(ProbeBits probes, long[] covered) {
+    int branchCount = wordStart.length;
+    int wordCount = probes.getWordCount();
+    for (int b = 0; b < branchCount; b++) {
+      long hit = 0L;
+      int w = wordStart[b];
+      int end = Math.min(maskOffsets[b + 1], maskOffsets[b] + wordCount - w);
+      for (int k = maskOffsets[b]; k < end; k++, w++) {
+        hit |= masks[k] & probes.getWord(w);
+      }
+      covered[b >>> 6] |= ((hit | -hit) >>> 63) << b;
+    }
+  }
+
+  @Override
+  public void evaluate(final long[] probeWords, long[] covered) {
+    int branchCount = wordStart.length;
+    for (int b = 0; b < branchCount; b++) {
+      long hit = 0L;
+      int w = wordStart[b];
+      int end = Math.min(maskOffsets[b + 1], maskOffsets[b] + probeWords.length - w);
+      for (int k = maskOffsets[b]; k < end; k++, w++) {
+        hit |= masks[k] & probeWords[w];
+      }
+      // (hit | -hit) >>> 63 is 1 iff hit != 0, this avoids a data dependent jump per branch.
+      covered[b >>> 6] |= ((hit | -hit) >>> 63) << b;
+    }
+  }
+
+  /**
+   * Write the mapping in binary form: the line, branch and mask word counts followed by
+   * the lines, line offsets, word starts, mask offsets and mask words arrays, all
+   * big-endian. {@link MappedBranchMapping} reads this layout in place.
+   */
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(lines.length);
+    out.writeInt(wordStart.length);
+    out.writeInt(masks.length);
+    writeInts(out, lines);
+    writeInts(out, lineOffsets);
+    writeInts(out, wordStart);
+    writeInts(out, maskOffsets);
+    for (long word : masks) {
+      out.writeLong(word);
+    }
+  }
+
+  /**
+   * Read a mapping written by {@link #write}, checking that it is consistent. Corrupt data
+   * throws an IOException rather than failing later.
+   *
+   * @param size the number of bytes of the mapping, which bounds the counts of the header
+   */
+  public static CompiledMapping read(DataInput in, long size) throws IOException {
+    int lineCount = in.readInt();
+    int branchCount = in.readInt();
+    int maskCount = in.readInt();
+    if (lineCount < 0 || branchCount < 0 || maskCount < 0
+        || 12 + 8L * lineCount + 8L * branchCount + 8 + 8L * maskCount > size) {
+      throw new IOException("Invalid compiled mapping header");
+    }
+    int[] lines = readInts(in, lineCount);
+    int[] lineOffsets = readInts(in, lineCount + 1);
+    int[] wordStart = readInts(in, branchCount);
+    int[] maskOffsets = readInts(in, branchCount + 1);
+    long[] masks = new long[maskCount];
+    for (int i = 0; i < maskCount; i++) {
+      masks[i] = in.readLong();
+    }
+    for (int i = 1; i < lineCount; i++) {
+      if (lines[i] <= lines[i - 1]) {
+        throw new IOException("Invalid compiled mapping lines");
+      }
+    }
+    checkOffsets(lineOffsets, branchCount);
+    checkOffsets(maskOffsets, maskCount);
+    for (int start : wordStart) {
+      if (start < 0) {
+        throw new IOException("Invalid compiled mapping word start");
+      }
+    }
+    return new CompiledMapping(lines, lineOffsets, wordStart, maskOffsets, masks);
+  }
+
+  // Offsets must increase from 0 to the size of the array they index.
+  private static void checkOffsets(int[] offsets, int size) throws IOException {
+    if (offsets[0] != 0 || offsets[offsets.length - 1] != size) {
+      throw new IOException("Invalid compiled mapping offsets");
+    }
+    for (int i = 1; i < offsets.length; i++) {
+      if (offsets[i] < offsets[i - 1]) {
+        throw new IOException("Invalid compiled mapping offsets");
+      }
+    }
+  }
+
+  private static void writeInts(DataOutput out, int[] values) throws IOException {
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+  private static int[] readInts(DataInput in, int count) throws IOException {
+    int[] values = new int[count];
+    for (int i = 0; i < count; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+}
@@ -18,4 +18,7 @@ public abstract class CovExp {
 
   /** Evaluate the expression using the given values of probes. */
   public abstract boolean eval(final boolean[] probes);
+
+  /** Evaluate the expression using packed values of probes. */
+  public abstract boolean eval(ProbeBits probes);
 }
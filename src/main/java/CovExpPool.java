@@ -0,0 +1,68 @@
+package org.jacoco.extra.internal;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An interning pool of CovExps, so that the mapping results share structure.
+ *
+ * <p>There is one ProbeExp per probe id, and one BranchExp per list of branches. CovExps
+ * do not override equals, so two lists of interned branches are equal exactly when they
+ * have the same branches in the same order. The BranchExps returned by a pool are
+ * immutable: add, update and merge throw UnsupportedOperationException. The mappers merge
+ * lines into copies and intern the complete lines.
+ *
+ * <p>A pool can be used for a single class or shared by all the classes of an analysis,
+ * concurrently. It keeps every interned node until it is dropped, so a shared pool should
+ * live no longer than one analysis. It is only needed while mapping; the results keep the
+ * shared nodes alive after the pool is dropped.
+ */
+public class CovExpPool {
+  private volatile ProbeExp[] probes = new ProbeExp[64];
+  private final ConcurrentMap<List<CovExp>, BranchExp> branches =
+      new ConcurrentHashMap<List<CovExp>, BranchExp>();
+
+  /** Returns the ProbeExp of the given probe id. */
+  public ProbeExp probe(int id) {
+    ProbeExp[] current = probes;
+    if (id < current.length && current[id] != null) {
+      return current[id];
+    }
+    return newProbe(id);
+  }
+
+  private synchronized ProbeExp newProbe(int id) {
+    ProbeExp[] current = probes;
+    if (id >= current.length) {
+      current = Arrays.copyOf(current, Math.max(2 * current.length, id + 1));
+    }
+    if (current[id] == null) {
+      current[id] = new ProbeExp(id);
+    }
+    probes = current; // Publish the new entry
+    return current[id];
+  }
+
+  /** Returns the BranchExp of the given branches, which must come from this pool. */
+  public BranchExp branch(List<CovExp> list) {
+    ImmutableList<CovExp> key = ImmutableList.copyOf(list);
+    BranchExp exp = branches.get(key);
+    if (exp == null) {
+      BranchExp created = new BranchExp(key);
+      exp = branches.putIfAbsent(key, created);
+      if (exp == null) {
+        exp = created;
+      }
+    }
+    return exp;
+  }
+
+  /** Returns the number of distinct BranchExps in the pool. */
+  public int size() {
+    return branches.size();
+  }
+}
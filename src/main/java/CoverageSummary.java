@@ -0,0 +1,136 @@
+package org.jacoco.extra.internal;
+
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+
+import org.objectweb.asm.ClassReader;
+
+import java.util.Arrays;
+
+/**
+ * Covered and missed branch counts of a class, per line, per method and in total.
+ *
+ * <p>The counts are computed once from the evaluated branches and kept in int arrays, so a
+ * summary can be queried without the mapping or the coverage expressions.
+ */
+public class CoverageSummary {
+  private final int[] lines;
+  private final int[] lineCovered;
+  private final int[] lineMissed;
+  private final String[] methodNames;
+  private final String[] methodDescs;
+  private final int[] methodCovered;
+  private final int[] methodMissed;
+  private final int covered;
+  private final int missed;
+
+  private CoverageSummary(BranchCoverage coverage, ClassProbesMapper mapper) {
+    BranchMapping mapping = coverage.getMapping();
+    int lineCount = mapping.getLineCount();
+    lines = new int[lineCount];
+    lineCovered = new int[lineCount];
+    lineMissed = new int[lineCount];
+    for (int idx = 0; idx < lineCount; idx++) {
+      lines[idx] = mapping.getLine(idx);
+      lineCovered[idx] = coverage.getCoveredCount(idx);
+      lineMissed[idx] = mapping.getBranchCount(idx) - lineCovered[idx];
+    }
+    covered = coverage.getCoveredCount();
+    missed = mapping.getTotalBranchCount() - covered;
+
+    int methodCount = mapper == null ? 0 : mapper.getMethodCount();
+    methodNames = new String[methodCount];
+    methodDescs = new String[methodCount];
+    methodCovered = new int[methodCount];
+    methodMissed = new int[methodCount];
+    for (int m = 0; m < methodCount; m++) {
+      methodNames[m] = mapper.getMethodName(m);
+      methodDescs[m] = mapper.getMethodDesc(m);
+      int[] ranges = mapper.getMethodRanges(m);
+      for (int r = 0; r < ranges.length; r += 3) {
+        int from = mapping.getFirstBranch(mapping.indexOfLine(ranges[r])) + ranges[r + 1];
+        int count = coverage.getCoveredCount(from, from + ranges[r + 2]);
+        methodCovered[m] += count;
+        methodMissed[m] += ranges[r + 2] - count;
+      }
+    }
+  }
+
+  /** Summarize the lines and the total of a class. */
+  public static CoverageSummary summarize(BranchCoverage coverage) {
+    return new CoverageSummary(coverage, null);
+  }
+
+  /**
+   * Summarize the lines, the methods and the total of a class. The coverage must be an
+   * evaluation of the compiled result of the mapper.
+   */
+  public static CoverageSummary summarize(BranchCoverage coverage, ClassProbesMapper mapper) {
+    return new CoverageSummary(coverage, mapper);
+  }
+
+  /** Map, evaluate and summarize a class with the given probes. */
+  public static CoverageSummary analyze(ClassReader reader, boolean[] probes) {
+    ClassProbesMapper mapper = new ClassProbesMapper();
+    reader.accept(new ClassProbesAdapter(mapper, false), 0);
+    CompiledMapping mapping = CompiledMapping.compile(mapper.result());
+    return summarize(new BranchEvaluator(mapping).evaluate(probes), mapper);
+  }
+
+  /** Number of lines with branches. */
+  public int getLineCount() {
+    return lines.length;
+  }
+
+  /** Line number of the idx-th line. */
+  public int getLine(int idx) {
+    return lines[idx];
+  }
+
+  /** Returns the index of a line number, or a negative value if the line has no branches. */
+  public int indexOfLine(int line) {
+    return Arrays.binarySearch(lines, line);
+  }
+
+  /** Number of covered branches of the idx-th line. */
+  public int getCoveredCount(int idx) {
+    return lineCovered[idx];
+  }
+
+  /** Number of missed branches of the idx-th line. */
+  public int getMissedCount(int idx) {
+    return lineMissed[idx];
+  }
+
+  /** Number of methods, 0 if the summary was made without the mapper. */
+  public int getMethodCount() {
+    return methodNames.length;
+  }
+
+  public String getMethodName(int m) {
+    return methodNames[m];
+  }
+
+  public String getMethodDesc(int m) {
+    return methodDescs[m];
+  }
+
+  /** Number of covered branches of the m-th method. */
+  public int getMethodCoveredCount(int m) {
+    return methodCovered[m];
+  }
+
+  /** Number of missed branches of the m-th method. */
+  public int getMethodMissedCount(int m) {
+    return methodMissed[m];
+  }
+
+  /** Number of covered branches of the class. */
+  public int getCoveredCount() {
+    return covered;
+  }
+
+  /** Number of missed branches of the class. */
+  public int getMissedCount() {
+    return missed;
+  }
+}
@@ -0,0 +1,110 @@
+package org.jacoco.extra.internal;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates the branches of a mapping again and again as the probes of a class change, for
+ * example with the snapshots of a running program.
+ *
+ * <p>The probes of the previous update are kept packed. An update compares them with the new
+ * probes word by word, and only the branches which use a changed probe are evaluated again,
+ * found with a reverse index from probes to branches. A probe which is set makes its branches
+ * covered at once, a probe which is cleared, after a reset of the execution data, makes its
+ * branches evaluated against all the probes. An update which changes no branch returns the
+ * previous result without allocating. An evaluator is not thread safe.
+ */
+public class DeltaEvaluator {
+  private final BranchMapping mapping;
+  private final ProbeIndex index;
+  // The probes of the previous update, only the words with probes of the mapping.
+  private final long[] previous;
+  private final long[] covered;
+  // Reused to pack the boolean probes of an update.
+  private long[] packed = new long[0];
+  private BranchCoverage last;
+  private int changedProbes = 0;
+
+  public DeltaEvaluator(BranchMapping mapping) {
+    this.mapping = mapping;
+    this.index = new ProbeIndex(mapping);
+    this.previous = new long[(index.getProbeCount() + 63) >>> 6];
+    this.covered = new long[(mapping.getTotalBranchCount() + 63) >>> 6];
+    this.last = new BranchCoverage(mapping, new long[covered.length]);
+  }
+
+  public BranchMapping getMapping() {
+    return mapping;
+  }
+
+  /** Update with the given values of probes, returns the coverage of all the branches. */
+  public BranchCoverage update(final boolean[] probes) {
+    int words = (probes.length + 63) >>> 6;
+    if (packed.length != words) {
+      packed = new long[words];
+    } else {
+      Arrays.fill(packed, 0L);
+    }
+    for (int i = 0; i < probes.length; i++) {
+      if (probes[i]) {
+        packed[i >>> 6] |= 1L << i;
+      }
+    }
+    return update(packed);
+  }
+
+  /**
+   * Update with probes packed by {@link CompiledMapping#pack}. When no branch changed, the
+   * result of the previous update is returned again.
+   */
+  public BranchCoverage update(final long[] probeWords) {
+    changedProbes = 0;
+    boolean changed = false;
+    int probeCount = index.getProbeCount();
+    for (int w = 0; w < previous.length; w++) {
+      long now = w < probeWords.length ? probeWords[w] : 0L;
+      long before = previous[w];
+      if (now == before) {
+        continue;
+      }
+      previous[w] = now;
+      long set = now & ~before;
+      long cleared = before & ~now;
+      changedProbes += Long.bitCount(set | cleared);
+      while (set != 0L) {
+        int probe = (w << 6) + Long.numberOfTrailingZeros(set);
+        set &= set - 1;
+        if (probe < probeCount) {
+          for (int i = index.getStart(probe); i < index.getEnd(probe); i++) {
+            int b = index.getBranch(i);
+            long word = covered[b >>> 6];
+            covered[b >>> 6] = word | (1L << b);
+            changed |= covered[b >>> 6] != word;
+          }
+        }
+      }
+      while (cleared != 0L) {
+        int probe = (w << 6) + Long.numberOfTrailingZeros(cleared);
+        cleared &= cleared - 1;
+        if (probe < probeCount) {
+          for (int i = index.getStart(probe); i < index.getEnd(probe); i++) {
+            int b = index.getBranch(i);
+            long word = covered[b >>> 6];
+            if ((word & (1L << b)) != 0L && !mapping.isCovered(b, probeWords)) {
+              covered[b >>> 6] = word & ~(1L << b);
+              changed = true;
+            }
+          }
+        }
+      }
+    }
+    if (changed) {
+      last = new BranchCoverage(mapping, Arrays.copyOf(covered, covered.length));
+    }
+    return last;
+  }
+
+  /** Number of probes which changed in the last update. */
+  public int getChangedProbeCount() {
+    return changedProbes;
+  }
+}
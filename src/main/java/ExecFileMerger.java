@@ -0,0 +1,120 @@
+package org.jacoco.extra.internal;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.SessionInfoStore;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Merges the execution data of many .exec files in parallel.
+ *
+ * <p>The files are split in ranges which are read by the tasks of a ForkJoin pool, each
+ * into its own store, so no store is shared between threads. The stores are then merged
+ * pairwise as the tasks join, a tree reduction in which the probe arrays of the same class
+ * are combined with a logical or by {@link ExecutionDataStore#put}.
+ */
+public class ExecFileMerger {
+  // Number of files read by one task without further splitting.
+  private static final int THRESHOLD = 4;
+
+  private final ForkJoinPool pool;
+
+  public ExecFileMerger() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  public ExecFileMerger(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /** Merge the execution data of the given files. */
+  public ExecutionDataStore merge(List<File> files) throws IOException {
+    return merge(files, new SessionInfoStore());
+  }
+
+  /**
+   * Merge the execution data of the given files, adding their sessions to sessions.
+   *
+   * @throws IllegalStateException if the files have incompatible data for the same class id
+   */
+  public ExecutionDataStore merge(List<File> files, SessionInfoStore sessions)
+      throws IOException {
+    try {
+      Merged merged = pool.invoke(new MergeTask(files, 0, files.size()));
+      merged.sessions.accept(sessions);
+      return merged.store;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static void read(File file, Merged merged) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      ExecutionDataReader reader = new ExecutionDataReader(in);
+      reader.setExecutionDataVisitor(merged.store);
+      reader.setSessionInfoVisitor(merged.sessions);
+      reader.read();
+    } finally {
+      in.close();
+    }
+  }
+
+  /** The execution data and sessions of a range of files. */
+  private static class Merged {
+    final ExecutionDataStore store = new ExecutionDataStore();
+    final SessionInfoStore sessions = new SessionInfoStore();
+
+    /** Add the data of other to this. */
+    Merged merge(Merged other) {
+      for (ExecutionData data : other.store.getContents()) {
+        store.put(data);
+      }
+      other.sessions.accept(sessions);
+      return this;
+    }
+  }
+
+  /** Merge the files in [from, to), splitting the range until it is small enough. */
+  private static class MergeTask extends RecursiveTask<Merged> {
+    private final List<File> files;
+    private final int from;
+    private final int to;
+
+    MergeTask(List<File> files, int from, int to) {
+      this.files = files;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Merged compute() {
+      if (to - from <= THRESHOLD) {
+        Merged merged = new Merged();
+        for (int i = from; i < to; i++) {
+          try {
+            read(files.get(i), merged);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return merged;
+      }
+      int mid = (from + to) >>> 1;
+      MergeTask right = new MergeTask(files, mid, to);
+      right.fork();
+      Merged left = new MergeTask(files, from, mid).compute();
+      return left.merge(right.join());
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package org.jacoco.extra.internal;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mappings of an incremental analysis, reusing the results of the previous run.
+ *
+ * <p>A run is saved in a state directory as a manifest of class names and CRC64 class ids
+ * and a {@link MappingFile} with the mappings of those classes. The next run maps the
+ * previous mapping file, and only classes whose id is not in it are analyzed with ASM; the
+ * others are served from the mapped file. Calling {@link #save} replaces the state with the
+ * classes seen in the current run. Instances can be used by concurrent analysis tasks.
+ *
+ * <p>Each save writes the manifest and the mappings to a new generation directory, and then
+ * atomically replaces the CURRENT file, which names the generation to load. A save which is
+ * interrupted before that leaves the previous state in place, and its unreferenced
+ * generation is removed by the next save.
+ */
+public class IncrementalMappings implements MappingProvider {
+  private static final String CURRENT = "CURRENT";
+  private static final String GENERATION_PREFIX = "state-";
+  private static final String MANIFEST = "manifest.txt";
+  private static final String MAPPINGS = "mappings.bin";
+
+  private final File dir;
+  private final Map<String, Long> previousIds = new HashMap<String, Long>();
+  private final MappingFile previous;
+
+  private final Map<String, Long> currentIds = new ConcurrentHashMap<String, Long>();
+  private final Map<Long, BranchMapping> currentMappings =
+      new ConcurrentHashMap<Long, BranchMapping>();
+
+  /** Load the state of the previous run, if any, from the directory. */
+  public IncrementalMappings(File dir) throws IOException {
+    this.dir = dir;
+    File current = new File(dir, CURRENT);
+    if (current.isFile()) {
+      File generation = new File(dir, readCurrent(current));
+      readManifest(new File(generation, MANIFEST));
+      previous = MappingFile.open(new File(generation, MAPPINGS));
+    } else {
+      previous = null;
+    }
+  }
+
+  private static String readCurrent(File current) throws IOException {
+    String name = new String(Files.readAllBytes(current.toPath()), StandardCharsets.UTF_8).trim();
+    if (!name.startsWith(GENERATION_PREFIX) || name.indexOf(File.separatorChar) >= 0) {
+      throw new IOException("Invalid state generation: " + name);
+    }
+    return name;
+  }
+
+  private void readManifest(File manifest) throws IOException {
+    BufferedReader in = new BufferedReader(
+        new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int space = line.indexOf(' ');
+        if (space != 16) {
+          throw new IOException("Invalid manifest line: " + line);
+        }
+        previousIds.put(line.substring(17), Long.parseUnsignedLong(line.substring(0, 16), 16));
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Returns the mapping of the class. Classes that did not change since the previous run are
+   * not analyzed again.
+   */
+  @Override
+  public BranchMapping get(long classId, ClassReader reader) {
+    currentIds.put(reader.getClassName(), classId);
+    BranchMapping mapping = currentMappings.get(classId);
+    if (mapping == null) {
+      mapping = previous == null ? null : previous.get(classId);
+      if (mapping == null) {
+        mapping = BatchAnalyzer.map(reader);
+      }
+      currentMappings.put(classId, mapping);
+    }
+    return mapping;
+  }
+
+  /** Names of the classes seen in this run which are new or changed since the previous run. */
+  public Set<String> getChangedClasses() {
+    Set<String> changed = new TreeSet<String>();
+    for (Map.Entry<String, Long> entry : currentIds.entrySet()) {
+      if (!entry.getValue().equals(previousIds.get(entry.getKey()))) {
+        changed.add(entry.getKey());
+      }
+    }
+    return changed;
+  }
+
+  /** Names of the classes of the previous run which were not seen in this run. */
+  public Set<String> getRemovedClasses() {
+    Set<String> removed = new TreeSet<String>(previousIds.keySet());
+    removed.removeAll(currentIds.keySet());
+    return removed;
+  }
+
+  /** Replace the saved state with the classes seen in this run. */
+  public void save() throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Cannot create directory " + dir);
+    }
+    File generation = Files.createTempDirectory(dir.toPath(), GENERATION_PREFIX).toFile();
+    File current = File.createTempFile(CURRENT, ".tmp", dir);
+    boolean saved = false;
+    try {
+      MappingFile.write(new File(generation, MAPPINGS), currentMappings);
+      Writer out = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(new File(generation, MANIFEST)), StandardCharsets.UTF_8));
+      try {
+        for (Map.Entry<String, Long> entry : currentIds.entrySet()) {
+          out.write(String.format("%016x %s%n", entry.getValue(), entry.getKey()));
+        }
+      } finally {
+        out.close();
+      }
+      Files.write(current.toPath(), generation.getName().getBytes(StandardCharsets.UTF_8));
+      Files.move(current.toPath(), new File(dir, CURRENT).toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      saved = true;
+    } finally {
+      current.delete();
+      if (!saved) {
+        deleteGeneration(generation);
+      }
+    }
+
+    // Remove the previous generations and those of interrupted saves.
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith(GENERATION_PREFIX) && !file.equals(generation)) {
+          deleteGeneration(file);
+        }
+      }
+    }
+  }
+
+  // Best effort, a generation mapped by a running analysis may not be deletable on Windows.
+  private static void deleteGeneration(File generation) {
+    File[] files = generation.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    generation.delete();
+  }
+}
@@ -0,0 +1,529 @@
+package org.jacoco.extra.internal;
+
+import org.jacoco.core.internal.data.CRC64;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.jacoco.core.internal.flow.ClassProbesVisitor;
+import org.jacoco.core.internal.flow.IFrame;
+import org.jacoco.core.internal.flow.MethodProbesVisitor;
+import org.jacoco.core.internal.instr.ClassInstrumenter;
+import org.jacoco.core.internal.instr.ProbeArrayStrategyFactory;
+import org.jacoco.core.runtime.IExecutionDataAccessorGenerator;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Instruments a class and maps its probes to its lines in one pass over the bytecode.
+ *
+ * <p>The probes found by a single {@link ClassProbesAdapter} are sent both to the JaCoCo
+ * {@link ClassInstrumenter}, which inserts them, and to a {@link ClassProbesMapper}, so the
+ * mapping uses the probe ids of the instrumented class. The instrumented class is the same
+ * as the one of {@link org.jacoco.core.instr.Instrumenter#instrument(ClassReader)}. When a
+ * {@link MappingCache} is given, the mapping of each instrumented class is stored in it, so
+ * the analysis of the execution data does not parse the class again.
+ */
+public class InstrumentingMapper {
+  private final IExecutionDataAccessorGenerator accessorGenerator;
+  private final MappingCache cache;
+
+  public InstrumentingMapper(IExecutionDataAccessorGenerator accessorGenerator) {
+    this(accessorGenerator, null);
+  }
+
+  /**
+   * @param accessorGenerator the runtime which provides the probe arrays
+   * @param cache the cache in which the mappings are stored, or null
+   */
+  public InstrumentingMapper(IExecutionDataAccessorGenerator accessorGenerator,
+      MappingCache cache) {
+    this.accessorGenerator = accessorGenerator;
+    this.cache = cache;
+  }
+
+  /** An instrumented class and the mapping of its probes. */
+  public static class Instrumented {
+    private final long classId;
+    private final byte[] bytes;
+    private final CompiledMapping mapping;
+
+    Instrumented(long classId, byte[] bytes, CompiledMapping mapping) {
+      this.classId = classId;
+      this.bytes = bytes;
+      this.mapping = mapping;
+    }
+
+    /** The CRC64 id of the original class, the id of its execution data. */
+    public long getClassId() {
+      return classId;
+    }
+
+    /** The instrumented class file. */
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    public CompiledMapping getMapping() {
+      return mapping;
+    }
+  }
+
+  /** Instrument and map a class, storing the mapping in the cache if there is one. */
+  public Instrumented instrument(byte[] bytes) throws IOException {
+    long classId = CRC64.checksum(bytes);
+    ClassReader reader = new ClassReader(bytes);
+    ClassWriter writer = new ClassWriter(reader, 0);
+    ClassInstrumenter instrumenter = new ClassInstrumenter(
+        ProbeArrayStrategyFactory.createFor(reader, accessorGenerator), writer);
+    ClassProbesMapper mapper = new ClassProbesMapper();
+    TeeClassVisitor tee = new TeeClassVisitor(instrumenter, mapper);
+    reader.accept(new LabeledNewRecorder(new ClassProbesAdapter(tee, true), tee),
+        ClassReader.EXPAND_FRAMES);
+    CompiledMapping mapping = CompiledMapping.compile(mapper.result());
+    if (cache != null) {
+      cache.put(classId, mapping);
+    }
+    return new Instrumented(classId, writer.toByteArray(), mapping);
+  }
+
+  /**
+   * Records which NEW instructions of each method directly follow a label of the class, and
+   * gives them to the {@link TeeClassVisitor} of the method. The ASM AnalyzerAdapter adds a
+   * label before the other NEW instructions.
+   */
+  private static class LabeledNewRecorder extends ClassVisitor {
+    private final TeeClassVisitor tee;
+
+    LabeledNewRecorder(ClassVisitor cv, TeeClassVisitor tee) {
+      super(Opcodes.ASM5, cv);
+      this.tee = tee;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+        String[] exceptions) {
+      // The method visitor of the tee is created by the call below, and the events reach
+      // it after this method visitor has seen them all.
+      LabeledNewVisitor recorder = new LabeledNewVisitor();
+      tee.labeledNews = recorder;
+      recorder.setDelegate(super.visitMethod(access, name, desc, signature, exceptions));
+      return recorder;
+    }
+  }
+
+  /** Records which NEW instructions of a method directly follow a label. */
+  private static class LabeledNewVisitor extends MethodVisitor {
+    private final BitSet labeledNews = new BitSet();
+    private boolean labeled = false;
+    private int newCount = 0;
+    private boolean subroutines = false;
+
+    LabeledNewVisitor() {
+      super(Opcodes.ASM5);
+    }
+
+    void setDelegate(MethodVisitor mv) {
+      this.mv = mv;
+    }
+
+    /**
+     * Whether the AnalyzerAdapter adds a label before the i-th NEW instruction it visits.
+     * The subroutines are inlined before the AnalyzerAdapter, so the NEW instructions of a
+     * method with subroutines are not the ones counted here, and all are taken as added.
+     */
+    boolean addsLabel(int i) {
+      return subroutines || !labeledNews.get(i);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+      labeled = true;
+      super.visitLabel(label);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+      labeled = false;
+      super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+      labeled = false;
+      super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+      labeled = false;
+      super.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      if (opcode == Opcodes.NEW) {
+        labeledNews.set(newCount++, labeled);
+      }
+      labeled = false;
+      super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+      labeled = false;
+      super.visitFieldInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc,
+        boolean itf) {
+      labeled = false;
+      super.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String desc, Handle bsm,
+        Object... bsmArgs) {
+      labeled = false;
+      super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+      if (opcode == Opcodes.JSR) {
+        subroutines = true;
+      }
+      labeled = false;
+      super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLdcInsn(Object cst) {
+      labeled = false;
+      super.visitLdcInsn(cst);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+      labeled = false;
+      super.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+      labeled = false;
+      super.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+      labeled = false;
+      super.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+      labeled = false;
+      super.visitMultiANewArrayInsn(desc, dims);
+    }
+  }
+
+  /**
+   * Sends the class events to the instrumenter, and those which the mapper needs to the
+   * mapper as well.
+   */
+  private static class TeeClassVisitor extends ClassProbesVisitor {
+    private final ClassProbesVisitor instrumenter;
+    private final ClassProbesVisitor mapper;
+    // The NEW instructions of the next method which follow a label.
+    private LabeledNewVisitor labeledNews;
+
+    TeeClassVisitor(ClassProbesVisitor instrumenter, ClassProbesVisitor mapper) {
+      super(instrumenter);
+      this.instrumenter = instrumenter;
+      this.mapper = mapper;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature,
+        String superName, String[] interfaces) {
+      super.visit(version, access, name, signature, superName, interfaces);
+      mapper.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public void visitSource(String source, String debug) {
+      super.visitSource(source, debug);
+      mapper.visitSource(source, debug);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature,
+        Object value) {
+      mapper.visitField(access, name, desc, signature, value);
+      return super.visitField(access, name, desc, signature, value);
+    }
+
+    @Override
+    public MethodProbesVisitor visitMethod(int access, String name, String desc,
+        String signature, String[] exceptions) {
+      MethodProbesVisitor first = instrumenter.visitMethod(access, name, desc, signature,
+          exceptions);
+      MethodProbesVisitor second = mapper.visitMethod(access, name, desc, signature,
+          exceptions);
+      if (first == null || second == null) {
+        return first == null ? second : first;
+      }
+      return new TeeMethodVisitor(first, second, labeledNews);
+    }
+
+    @Override
+    public void visitTotalProbeCount(int count) {
+      instrumenter.visitTotalProbeCount(count);
+      mapper.visitTotalProbeCount(count);
+    }
+
+    @Override
+    public void visitEnd() {
+      super.visitEnd();
+      mapper.visitEnd();
+    }
+  }
+
+  /**
+   * Sends the method events to both visitors. Annotations, parameters and attributes only
+   * go to the instrumenter.
+   *
+   * <p>The instrumenter needs the frames of the probes, so the events come through the ASM
+   * AnalyzerAdapter, which adds a label before each NEW instruction without one. Such a
+   * label is unknown to the label flow analysis, and the mapper would take it as the start
+   * of a block without a predecessor, so it is not sent to the mapper. The labels of the
+   * class without flow information, which start dead code, are sent to the mapper.
+   */
+  private static class TeeMethodVisitor extends MethodProbesVisitor {
+    private final MethodProbesVisitor instrumenter;
+    private final MethodProbesVisitor mapper;
+    private final LabeledNewVisitor labeledNews;
+    private Label pendingLabel = null;
+    private int newCount = 0;
+
+    TeeMethodVisitor(MethodProbesVisitor instrumenter, MethodProbesVisitor mapper,
+        LabeledNewVisitor labeledNews) {
+      super(instrumenter);
+      this.instrumenter = instrumenter;
+      this.mapper = mapper;
+      this.labeledNews = labeledNews;
+    }
+
+    @Override
+    public void visitCode() {
+      instrumenter.visitCode();
+      flushLabel();
+      mapper.visitCode();
+    }
+
+    @Override
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+      instrumenter.visitFrame(type, nLocal, local, nStack, stack);
+      flushLabel();
+      mapper.visitFrame(type, nLocal, local, nStack, stack);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+      instrumenter.visitInsn(opcode);
+      flushLabel();
+      mapper.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+      instrumenter.visitIntInsn(opcode, operand);
+      flushLabel();
+      mapper.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+      instrumenter.visitVarInsn(opcode, var);
+      flushLabel();
+      mapper.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+      instrumenter.visitTypeInsn(opcode, type);
+      if (opcode == Opcodes.NEW && labeledNews.addsLabel(newCount++)) {
+        pendingLabel = null;
+      }
+      flushLabel();
+      mapper.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+      instrumenter.visitFieldInsn(opcode, owner, name, desc);
+      flushLabel();
+      mapper.visitFieldInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc,
+        boolean itf) {
+      instrumenter.visitMethodInsn(opcode, owner, name, desc, itf);
+      flushLabel();
+      mapper.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String desc, Handle bsm,
+        Object... bsmArgs) {
+      instrumenter.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+      flushLabel();
+      mapper.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+      instrumenter.visitJumpInsn(opcode, label);
+      flushLabel();
+      mapper.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+      instrumenter.visitLabel(label);
+      flushLabel();
+      if (label.info == null) {
+        pendingLabel = label;
+      } else {
+        mapper.visitLabel(label);
+      }
+    }
+
+    // Send the label without flow information to the mapper, unless the AnalyzerAdapter
+    // added it.
+    private void flushLabel() {
+      if (pendingLabel != null) {
+        mapper.visitLabel(pendingLabel);
+        pendingLabel = null;
+      }
+    }
+
+    @Override
+    public void visitLdcInsn(Object cst) {
+      instrumenter.visitLdcInsn(cst);
+      flushLabel();
+      mapper.visitLdcInsn(cst);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+      instrumenter.visitIincInsn(var, increment);
+      flushLabel();
+      mapper.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+      instrumenter.visitTableSwitchInsn(min, max, dflt, labels);
+      flushLabel();
+      mapper.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+      instrumenter.visitLookupSwitchInsn(dflt, keys, labels);
+      flushLabel();
+      mapper.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+      instrumenter.visitMultiANewArrayInsn(desc, dims);
+      flushLabel();
+      mapper.visitMultiANewArrayInsn(desc, dims);
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+      instrumenter.visitTryCatchBlock(start, end, handler, type);
+      flushLabel();
+      mapper.visitTryCatchBlock(start, end, handler, type);
+    }
+
+    @Override
+    public void visitLocalVariable(String name, String desc, String signature, Label start,
+        Label end, int index) {
+      instrumenter.visitLocalVariable(name, desc, signature, start, end, index);
+      flushLabel();
+      mapper.visitLocalVariable(name, desc, signature, start, end, index);
+    }
+
+    @Override
+    public void visitLineNumber(int line, Label start) {
+      instrumenter.visitLineNumber(line, start);
+      flushLabel();
+      mapper.visitLineNumber(line, start);
+    }
+
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+      instrumenter.visitMaxs(maxStack, maxLocals);
+      flushLabel();
+      mapper.visitMaxs(maxStack, maxLocals);
+    }
+
+    @Override
+    public void visitEnd() {
+      instrumenter.visitEnd();
+      flushLabel();
+      mapper.visitEnd();
+    }
+
+    @Override
+    public void visitProbe(int probeId) {
+      instrumenter.visitProbe(probeId);
+      flushLabel();
+      mapper.visitProbe(probeId);
+    }
+
+    @Override
+    public void visitJumpInsnWithProbe(int opcode, Label label, int probeId, IFrame frame) {
+      instrumenter.visitJumpInsnWithProbe(opcode, label, probeId, frame);
+      flushLabel();
+      mapper.visitJumpInsnWithProbe(opcode, label, probeId, frame);
+    }
+
+    @Override
+    public void visitInsnWithProbe(int opcode, int probeId) {
+      instrumenter.visitInsnWithProbe(opcode, probeId);
+      flushLabel();
+      mapper.visitInsnWithProbe(opcode, probeId);
+    }
+
+    @Override
+    public void visitTableSwitchInsnWithProbes(int min, int max, Label dflt, Label[] labels,
+        IFrame frame) {
+      instrumenter.visitTableSwitchInsnWithProbes(min, max, dflt, labels, frame);
+      flushLabel();
+      mapper.visitTableSwitchInsnWithProbes(min, max, dflt, labels, frame);
+    }
+
+    @Override
+    public void visitLookupSwitchInsnWithProbes(Label dflt, int[] keys, Label[] labels,
+        IFrame frame) {
+      instrumenter.visitLookupSwitchInsnWithProbes(dflt, keys, labels, frame);
+      flushLabel();
+      mapper.visitLookupSwitchInsnWithProbes(dflt, keys, labels, frame);
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package org.jacoco.extra.internal;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A branch mapping read in place from a buffer in the layout written by
+ * {@link CompiledMapping#write}.
+ *
+ * <p>Nothing is copied out of the buffer, so a mapping backed by a MappedByteBuffer costs
+ * a few fields on the heap no matter how many lines and branches it has. Only absolute
+ * reads are used, so instances sharing a buffer can be used from any number of threads.
+ */
+public class MappedBranchMapping implements BranchMapping {
+  private final ByteBuffer buffer;
+  private final int position;
+  private final int lineCount;
+  private final int branchCount;
+  private final int lines;
+  private final int lineOffsets;
+  private final int wordStart;
+  private final int maskOffsets;
+  private final int masks;
+
+  /** Create a mapping for the compiled mapping at the given position of the buffer. */
+  public MappedBranchMapping(ByteBuffer buffer, int position) {
+    this.buffer = buffer;
+    this.position = position;
+    lineCount = buffer.getInt(position);
+    branchCount = buffer.getInt(position + 4);
+    lines = position + 12;
+    lineOffsets = lines + 4 * lineCount;
+    wordStart = lineOffsets + 4 * (lineCount + 1);
+    maskOffsets = wordStart + 4 * branchCount;
+    masks = maskOffsets + 4 * (branchCount + 1);
+  }
+
+  @Override
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  @Override
+  public int getLine(int idx) {
+    return buffer.getInt(lines + 4 * idx);
+  }
+
+  @Override
+  public int getFirstBranch(int idx) {
+    return buffer.getInt(lineOffsets + 4 * idx);
+  }
+
+  @Override
+  public int getBranchCount(int idx) {
+    return getFirstBranch(idx + 1) - getFirstBranch(idx);
+  }
+
+  @Override
+  public int getTotalBranchCount() {
+    return branchCount;
+  }
+
+  @Override
+  public int indexOfLine(int line) {
+    int low = 0;
+    int high = lineCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int value = getLine(mid);
+      if (value < line) {
+        low = mid + 1;
+      } else if (value > line) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  @Override
+  public int getMaskStart(int branch) {
+    return buffer.getInt(wordStart + 4 * branch);
+  }
+
+  @Override
+  public int getMaskLength(int branch) {
+    return buffer.getInt(maskOffsets + 4 * (branch + 1))
+        - buffer.getInt(maskOffsets + 4 * branch);
+  }
+
+  @Override
+  public long getMaskWord(int branch, int k) {
+    return buffer.getLong(masks + 8 * (buffer.getInt(maskOffsets + 4 * branch) + k));
+  }
+
+  @Override
+  public boolean isCovered(int branch, final long[] probeWords) {
+    int w = buffer.getInt(wordStart + 4 * branch);
+    int end = buffer.getInt(maskOffsets + 4 * (branch + 1));
+    for (int k = buffer.getInt(maskOffsets + 4 * branch); k < end; k++, w++) {
+      if (w >= probeWords.length) {
+        return false;
+      }
+      if ((buffer.getLong(masks + 8 * k) & probeWords[w]) != 0L) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void evaluate(final long[] probeWords, long[] covered) {
+    for (int b = 0; b < branchCount; b++) {
+      if (isCovered(b, probeWords)) {
+        covered[b >>> 6] |= 1L << b;
+      }
+    }
+  }
+
+  @Override
+  public boolean isCovered(int branch, ProbeBits probes) {
+    int w = buffer.getInt(wordStart + 4 * branch);
+    int end = buffer.getInt(maskOffsets + 4 * (branch + 1));
+    int wordCount = probes.getWordCount();
+    for (int k = buffer.getInt(maskOffsets + 4 * branch); k < end && w < wordCount; k++, w++) {
+      if ((buffer.getLong(masks + 8 * k) & probes.getWord(w)) != 0L) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void evaluate(ProbeBits probes, long[] covered) {
+    for (int b = 0; b < branchCount; b++) {
+      if (isCovered(b, probes)) {
+        covered[b >>> 6] |= 1L << b;
+      }
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    int end = masks + 8 * buffer.getInt(position + 8);
+    byte[] bytes = new byte[end - position];
+    ByteBuffer source = buffer.duplicate();
+    source.position(position);
+    source.get(bytes);
+    out.write(bytes);
+  }
+}
@@ -0,0 +1,106 @@
+package org.jacoco.extra.internal;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A persistent cache of compiled mappings, keyed by the CRC64 class id.
+ *
+ * <p>The mapping of a class only depends on the class bytes, so a cached mapping can be
+ * reused for as long as the class does not change. Each mapping is stored in its own
+ * file under a directory named after the first byte of the class id. Files are written
+ * to a temporary file first and then renamed, so concurrent writers and readers never
+ * see partial entries.
+ */
+public class MappingCache implements MappingProvider {
+  private static final int MAGIC = 0x4A434D43; // "JCMC"
+  private static final int VERSION = 1;
+  // Magic, version and class id.
+  private static final int HEADER_SIZE = 16;
+
+  private final File dir;
+
+  public MappingCache(File dir) {
+    this.dir = dir;
+  }
+
+  private File file(long classId) {
+    String name = String.format("%016x", classId);
+    return new File(new File(dir, name.substring(0, 2)), name + ".map");
+  }
+
+  /** Returns the cached mapping of the class, or null if it is not in the cache. */
+  public CompiledMapping get(long classId) throws IOException {
+    File file = file(classId);
+    if (!file.isFile()) {
+      return null;
+    }
+    DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != classId) {
+        throw new IOException("Invalid mapping cache file " + file);
+      }
+      return CompiledMapping.read(in, file.length() - HEADER_SIZE);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Store the mapping of the class. */
+  public void put(long classId, CompiledMapping mapping) throws IOException {
+    File file = file(classId);
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Cannot create directory " + parent);
+    }
+    File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+    try {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(classId);
+        mapping.write(out);
+      } finally {
+        out.close();
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Returns the cached mapping of the class, mapping and caching the class on a miss. An
+   * entry which cannot be read, for example a file truncated by a crash, is deleted and
+   * counts as a miss.
+   */
+  @Override
+  public CompiledMapping get(long classId, ClassReader reader) throws IOException {
+    CompiledMapping mapping;
+    try {
+      mapping = get(classId);
+    } catch (IOException e) {
+      file(classId).delete();
+      mapping = null;
+    }
+    if (mapping == null) {
+      mapping = BatchAnalyzer.map(reader);
+      put(classId, mapping);
+    }
+    return mapping;
+  }
+}
@@ -0,0 +1,121 @@
+package org.jacoco.extra.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A file holding the compiled mappings of many classes, read through a MappedByteBuffer.
+ *
+ * <p>The file starts with a header (magic, version, class count), followed by an index of
+ * (class id, offset) pairs sorted by class id and the mappings in the layout written by
+ * {@link CompiledMapping#write}. Looking up a class is a binary search over the mapped
+ * index and returns a {@link MappedBranchMapping}, so the mappings are never deserialized
+ * into objects. The whole file must be smaller than 2 GB.
+ */
+public class MappingFile {
+  private static final int MAGIC = 0x4A434D46; // "JCMF"
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 12;
+  private static final int INDEX_ENTRY_SIZE = 12;
+
+  private final ByteBuffer buffer;
+  private final int count;
+
+  private MappingFile(ByteBuffer buffer) throws IOException {
+    if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION) {
+      throw new IOException("Invalid mapping file");
+    }
+    this.buffer = buffer;
+    this.count = buffer.getInt(8);
+    if (count < 0 || HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE > buffer.limit()) {
+      throw new IOException("Invalid mapping file index");
+    }
+  }
+
+  /** Write the mappings of the given classes, keyed by class id. */
+  public static void write(File file, Map<Long, ? extends BranchMapping> mappings)
+      throws IOException {
+    Map<Long, BranchMapping> sorted = new TreeMap<Long, BranchMapping>(mappings);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream bodyOut = new DataOutputStream(body);
+    int[] offsets = new int[sorted.size()];
+    int base = HEADER_SIZE + INDEX_ENTRY_SIZE * sorted.size();
+    int i = 0;
+    for (BranchMapping mapping : sorted.values()) {
+      offsets[i++] = base + bodyOut.size();
+      mapping.write(bodyOut);
+    }
+    bodyOut.flush();
+
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(sorted.size());
+      i = 0;
+      for (long classId : sorted.keySet()) {
+        out.writeLong(classId);
+        out.writeInt(offsets[i++]);
+      }
+      body.writeTo(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Map a file written by {@link #write} into memory. */
+  public static MappingFile open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      return new MappingFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close(); // The mapping stays valid after the channel is closed.
+    }
+  }
+
+  /** Read mappings from a buffer in the layout written by {@link #write}. */
+  public static MappingFile wrap(ByteBuffer buffer) throws IOException {
+    return new MappingFile(buffer);
+  }
+
+  /** Number of classes in the file. */
+  public int size() {
+    return count;
+  }
+
+  /** Class id of the idx-th class, in ascending order. */
+  public long getClassId(int idx) {
+    return buffer.getLong(HEADER_SIZE + INDEX_ENTRY_SIZE * idx);
+  }
+
+  /** Returns the mapping of the class, or null if the class is not in the file. */
+  public BranchMapping get(long classId) {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long value = getClassId(mid);
+      if (value < classId) {
+        low = mid + 1;
+      } else if (value > classId) {
+        high = mid - 1;
+      } else {
+        int offset = buffer.getInt(HEADER_SIZE + INDEX_ENTRY_SIZE * mid + 8);
+        return new MappedBranchMapping(buffer, offset);
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,15 @@
+package org.jacoco.extra.internal;
+
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+
+/** Provides the branch mapping of a class, possibly without analyzing its bytecode. */
+public interface MappingProvider {
+  /**
+   * Returns the mapping of the class with the given CRC64 id.
+   *
+   * @param reader the class, analyzed if the mapping is not available otherwise
+   */
+  BranchMapping get(long classId, ClassReader reader) throws IOException;
+}
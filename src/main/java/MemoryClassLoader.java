@@ -0,0 +1,63 @@
+package org.jacoco.extra.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A class loader of in-memory class definitions, such as instrumented classes, which can be
+ * used by many threads.
+ *
+ * <p>The loader is registered as parallel capable, so classes are loaded under a lock per
+ * class name instead of a lock on the loader. A class added here is defined by this loader,
+ * once, on its first load, and later loads return the defined class. Other classes are
+ * loaded by the parent. A definition added after its class was loaded has no effect.
+ */
+public class MemoryClassLoader extends ClassLoader {
+  static {
+    registerAsParallelCapable();
+  }
+
+  private final ConcurrentMap<String, byte[]> definitions =
+      new ConcurrentHashMap<String, byte[]>();
+
+  public MemoryClassLoader(ClassLoader parent) {
+    super(parent);
+  }
+
+  /**
+   * Add the definition of a class.
+   *
+   * @param name the binary name of the class, for example a.b.C
+   */
+  public void addDefinition(String name, byte[] bytes) {
+    definitions.put(name, bytes);
+  }
+
+  /** Add the definitions of many classes, keyed by binary name. */
+  public void addDefinitions(Map<String, byte[]> classes) {
+    definitions.putAll(classes);
+  }
+
+  public boolean isDefined(String name) {
+    return definitions.containsKey(name);
+  }
+
+  @Override
+  protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+    byte[] bytes = definitions.get(name);
+    if (bytes == null) {
+      return super.loadClass(name, resolve);
+    }
+    synchronized (getClassLoadingLock(name)) {
+      Class<?> c = findLoadedClass(name);
+      if (c == null) {
+        c = defineClass(name, bytes, 0, bytes.length);
+      }
+      if (resolve) {
+        resolveClass(c);
+      }
+      return c;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package org.jacoco.extra.internal;
+
+import org.objectweb.asm.ClassReader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory cache of mappings, keyed by the CRC64 class id, for long running
+ * processes which analyze the same classes again and again.
+ *
+ * <p>Entries are weighed by the number of lines, branches and probe mask words of their
+ * mapping, and the least recently used entries are evicted when the total weight exceeds
+ * the maximum. With the soft fallback enabled, evicted mappings are moved to a second cache
+ * of soft references, where they stay until the garbage collector needs the memory.
+ *
+ * <p>Mappings which are not cached are taken from the delegate provider if there is one,
+ * for example a {@link MappingCache} on disk, or mapped from the bytecode otherwise.
+ */
+public class MemoryMappingCache implements MappingProvider {
+  private final MappingProvider delegate;
+  private final Cache<Long, BranchMapping> cache;
+  private final Cache<Long, BranchMapping> softCache;
+  private final AtomicLong softHits = new AtomicLong();
+
+  public MemoryMappingCache(long maximumWeight) {
+    this(maximumWeight, false, null);
+  }
+
+  /**
+   * @param maximumWeight the maximum total number of lines, branches and mask words
+   * @param softFallback whether to keep evicted mappings as soft references
+   * @param delegate the provider of the mappings which are not cached, or null
+   */
+  public MemoryMappingCache(long maximumWeight, boolean softFallback,
+      MappingProvider delegate) {
+    this.delegate = delegate;
+    if (softFallback) {
+      softCache = CacheBuilder.newBuilder().softValues().build();
+    } else {
+      softCache = null;
+    }
+    cache = CacheBuilder.newBuilder()
+        .maximumWeight(maximumWeight)
+        .weigher(new Weigher<Long, BranchMapping>() {
+          @Override
+          public int weigh(Long classId, BranchMapping mapping) {
+            return weight(mapping);
+          }
+        })
+        .removalListener(new RemovalListener<Long, BranchMapping>() {
+          @Override
+          public void onRemoval(RemovalNotification<Long, BranchMapping> notification) {
+            if (softCache != null && notification.getCause() == RemovalCause.SIZE) {
+              softCache.put(notification.getKey(), notification.getValue());
+            }
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /** The weight of a mapping, the number of its lines, branches and mask words. */
+  static int weight(BranchMapping mapping) {
+    int branches = mapping.getTotalBranchCount();
+    int weight = mapping.getLineCount() + branches;
+    for (int b = 0; b < branches; b++) {
+      weight += mapping.getMaskLength(b);
+    }
+    return weight;
+  }
+
+  /** Returns the cached mapping of the class, or null if it is not in the cache. */
+  public BranchMapping get(long classId) {
+    BranchMapping mapping = cache.getIfPresent(classId);
+    if (mapping == null) {
+      mapping = takeSoft(classId);
+      if (mapping != null) {
+        cache.put(classId, mapping);
+      }
+    }
+    return mapping;
+  }
+
+  @Override
+  public BranchMapping get(final long classId, final ClassReader reader) throws IOException {
+    try {
+      return cache.get(classId, new Callable<BranchMapping>() {
+        @Override
+        public BranchMapping call() throws IOException {
+          BranchMapping mapping = takeSoft(classId);
+          if (mapping != null) {
+            return mapping;
+          }
+          return delegate == null ? BatchAnalyzer.map(reader) : delegate.get(classId, reader);
+        }
+      });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** Remove a mapping from the soft fallback, returns null if it is not there. */
+  private BranchMapping takeSoft(long classId) {
+    if (softCache == null) {
+      return null;
+    }
+    BranchMapping mapping = softCache.getIfPresent(classId);
+    if (mapping != null) {
+      softHits.incrementAndGet();
+      softCache.invalidate(classId);
+    }
+    return mapping;
+  }
+
+  /**
+   * Hit, miss and eviction counts of the cache. A mapping found in the soft fallback counts
+   * as a miss here and as a soft hit.
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /** Number of mappings found in the soft fallback after they were evicted. */
+  public long getSoftHitCount() {
+    return softHits.get();
+  }
+
+  /** Number of mappings in the cache, excluding the soft fallback. */
+  public long size() {
+    return cache.size();
+  }
+}
@@ -4,7 +4,6 @@ import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 
 import org.jacoco.core.internal.flow.MethodProbesVisitor;
-import org.jacoco.core.internal.flow.Instruction;
 import org.jacoco.core.internal.flow.LabelInfo;
 import org.jacoco.core.internal.flow.IFrame;
 
@@ -12,9 +11,10 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.HashMultimap;
 
 import java.util.Map;
-import java.util.HashMap;
 import java.util.TreeMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 
@@ -22,19 +22,21 @@ import java.util.List;
  * A probes mapper is a ProbesVisitor object which is used with ProbesAdapter
  * to traverse the method bytecode to generate mapping between probes and source
  * code.
+ *
+ * <p>Instructions are numbered in visit order and all the per instruction data is kept in
+ * int-indexed arrays, so that large methods can be mapped without boxing or hashing.
  */
 public class MethodProbesMapper extends MethodProbesVisitor {
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 64;
+
   // States
   //
   // These are state variables that needs to be updated in the visitor methods.
   // The values usually changes as we traverse the byte code.
-  private Instruction lastInstruction = null;
+  private int lastInstruction = NONE;
   private int currentLine = -1;
   private List<Label> currentLabels = new ArrayList<Label>();
-  
-  // Intermediate results
-  private final Map<Instruction, CovExp> insnToCovExp = new HashMap<Instruction, CovExp>();
-  private final Map<Instruction, Integer> insnToIdx = new HashMap<Instruction, Integer>();
 
   // Result
   private Map<Integer, BranchExp> lineToBranchExp = new TreeMap<Integer, BranchExp>();
@@ -42,31 +44,57 @@ public class MethodProbesMapper extends MethodProbesVisitor {
     return lineToBranchExp;
   }
 
+  // Instructions
+  //
+  // Instruction i is the i-th instruction visited. These arrays replace the JaCoCo
+  // Instruction objects: the line, the branch count and the predecessor of each instruction.
+  private int instructionCount = 0;
+  private int[] lines = new int[INITIAL_CAPACITY];
+  private int[] branches = new int[INITIAL_CAPACITY];
+  private int[] predecessors = new int[INITIAL_CAPACITY];
+
   // Intermediate results
   //
   // These values are built up during the visitor methods. They will be used to compute
   // the final results.
-  private List<Instruction> instructions = new ArrayList<Instruction>();
-  private List<Jump> jumps = new ArrayList<Jump>();
-  private Map<Integer, Instruction> probeToInsn = new TreeMap<Integer, Instruction>();
+  private int jumpCount = 0;
+  private int[] jumpSources = new int[INITIAL_CAPACITY];
+  private Label[] jumpTargets = new Label[INITIAL_CAPACITY];
+  private int probeCount = 0;
+  private long[] probeToInsn = new long[INITIAL_CAPACITY]; // (probeId << 32) | instruction
+  private final LabelIndex labelToInsn = new LabelIndex();
+  private boolean resolved = false;
+  // The CovExp of each instruction, once resolved.
+  private CovExp[] insnExps = null;
+
+  // Interning pool of the CovExps, or null to allocate them fresh.
+  private final CovExpPool pool;
+
+  /** Create a mapper which allocates new CovExps. */
+  public MethodProbesMapper() {
+    this(null);
+  }
 
-  // Local cache
-  //
-  // These are maps corresponding to data structures available in JaCoCo in other form.
-  // We use local data structure to avoid need to change the JaCoCo internal code.
-  private Map<Instruction, Instruction> predecessors = new HashMap<Instruction, Instruction>();
-  private Map<Label, Instruction> labelToInsn = new HashMap<Label, Instruction>();
+  /** Create a mapper which takes its CovExps from the given pool, if not null. */
+  public MethodProbesMapper(CovExpPool pool) {
+    this.pool = pool;
+  }
 
   /** Visitor method to append a new Instruction */
   private void visitInsn() {
-    Instruction instruction = new Instruction(currentLine);
-    instructions.add(instruction);
-    if (lastInstruction != null) {
-      instruction.setPredecessor(lastInstruction); // Update branch of lastInstruction
-      predecessors.put(instruction, lastInstruction); // Update local cache
+    int instruction = instructionCount++;
+    if (instruction == lines.length) {
+      int capacity = 2 * instruction;
+      lines = Arrays.copyOf(lines, capacity);
+      branches = Arrays.copyOf(branches, capacity);
+      predecessors = Arrays.copyOf(predecessors, capacity);
+    }
+    lines[instruction] = currentLine;
+    branches[instruction] = 0;
+    predecessors[instruction] = lastInstruction;
+    if (lastInstruction != NONE) {
+      branches[lastInstruction]++; // Update branch of lastInstruction
     }
-
-    int labelCount = currentLabels.size();
 
     for (Label label: currentLabels) {
       labelToInsn.put(label, instruction);
@@ -75,6 +103,16 @@ public class MethodProbesMapper extends MethodProbesVisitor {
     lastInstruction = instruction;
   }
 
+  private void addJump(int source, Label target) {
+    if (jumpCount == jumpSources.length) {
+      jumpSources = Arrays.copyOf(jumpSources, 2 * jumpCount);
+      jumpTargets = Arrays.copyOf(jumpTargets, 2 * jumpCount);
+    }
+    jumpSources[jumpCount] = source;
+    jumpTargets[jumpCount] = target;
+    jumpCount++;
+  }
+
   // Plain visitors: called from adapter when no probe is needed
   @Override
   public void visitInsn(int opcode) {
@@ -133,14 +171,14 @@ public class MethodProbesMapper extends MethodProbesVisitor {
   @Override
   public void visitJumpInsn(int opcode, Label label) {
     visitInsn();
-    jumps.add(new Jump(lastInstruction, label));
+    addJump(lastInstruction, label);
   }
 
   @Override
   public void visitLabel(Label label) {
     currentLabels.add(label);
     if (!LabelInfo.isSuccessor(label)) {
-      lastInstruction = null;
+      lastInstruction = NONE;
     }
   }
 
@@ -155,14 +193,14 @@ public class MethodProbesMapper extends MethodProbesVisitor {
 
     // Handle default transition
     LabelInfo.resetDone(dflt);
-    jumps.add(new Jump(lastInstruction, dflt));
+    addJump(lastInstruction, dflt);
     LabelInfo.setDone(dflt);
 
     // Handle other transitions
     LabelInfo.resetDone(labels);
     for (Label label: labels) {
       if (!LabelInfo.isDone(label)) {
-        jumps.add(new Jump(lastInstruction, label));
+        addJump(lastInstruction, label);
         LabelInfo.setDone(label);
       }
     }
@@ -181,8 +219,11 @@ public class MethodProbesMapper extends MethodProbesVisitor {
   private void addProbe(int probeId) {
     // We do not add probes to the flow graph, but we need to update
     // the branch count of the predecessor of the probe
-    lastInstruction.addBranch();
-    probeToInsn.put(probeId, lastInstruction);
+    branches[lastInstruction]++;
+    if (probeCount == probeToInsn.length) {
+      probeToInsn = Arrays.copyOf(probeToInsn, 2 * probeCount);
+    }
+    probeToInsn[probeCount++] = ((long) probeId << 32) | lastInstruction;
   }
 
   // Probe visit methods
@@ -191,10 +232,10 @@ public class MethodProbesMapper extends MethodProbesVisitor {
     // This function is only called when visiting a merge node which
     // is a successor.
     // It adds an probe point to the last instruction
-    assert(lastInstruction != null);
+    assert(lastInstruction != NONE);
 
     addProbe(probeId);
-    lastInstruction = null; // Merge point should have no predecessor.
+    lastInstruction = NONE; // Merge point should have no predecessor.
   }
 
   @Override
@@ -236,7 +277,7 @@ public class MethodProbesMapper extends MethodProbesVisitor {
     if (!LabelInfo.isDone(label)) {
       int id = LabelInfo.getProbeId(label);
       if (id == LabelInfo.NO_PROBE) {
-        jumps.add(new Jump(lastInstruction, label));
+        addJump(lastInstruction, label);
       } else {
         // Note, in this case the instrumenter should insert intermediate labels
         // for the probes. These probes will be added for the switch instruction.
@@ -248,109 +289,137 @@ public class MethodProbesMapper extends MethodProbesVisitor {
     }
   }
 
-  // If a CovExp of pred is ProbeExp, create a single-branch BranchExp and put it in the map.
-  // Also update the index of insn.
-  private BranchExp getPredBranchExp(Instruction predecessor, Instruction insn) {
-    BranchExp result = null;
-    CovExp exp = insnToCovExp.get(predecessor);
-    if (exp instanceof ProbeExp) {
-      result = exp.branchExp(); // Change ProbeExp to BranchExp
-      insnToCovExp.put(predecessor, result);
-      // This can only happen if an Instruction is the predecessor of more than one
-      // instructions but its branch count is not > 1.
-      System.err.println("Internal data inconsistent");
-    } else {
-      result = (BranchExp) exp;
-    }
-    return result;
+  /** Finishing the method, the result is resolved unless this is overridden. */
+  @Override
+  public void visitEnd() {
+    resolve();
   }
 
-  // Update a branch predecessor and returns the BranchExp of the predecessor.
-  private Boolean updateBranchPredecessor(Instruction predecessor, Instruction insn,
-    CovExp exp) {
-    CovExp predExp = insnToCovExp.get(predecessor);
-    if (predExp == null) {
-      BranchExp branchExp = exp.branchExp();
-      insnToCovExp.put(predecessor, branchExp);
-      insnToIdx.put(insn, 0); // current insn is the first branch
-      return true;
+  /**
+   * Compute the result from the instructions recorded by the visitor methods. Only the
+   * first call has an effect.
+   *
+   * <p>The predecessors form a forest: every instruction has at most one predecessor, and
+   * backward jumps always carry a probe, which cuts the edge. The CovExp of an instruction
+   * is computed from the probes attached to it and the CovExps of its successors in the
+   * forest, so the forest is swept once from the leaves to the roots. The branches of a
+   * BranchExp are ordered by the smallest probe id reaching them.
+   */
+  public void resolve() {
+    if (resolved) {
+      return;
+    }
+    resolved = true;
+    for (int j = 0; j < jumpCount; j++) {
+      int insn = labelToInsn.get(jumpTargets[j]);
+      branches[jumpSources[j]]++;
+      predecessors[insn] = jumpSources[j];
     }
 
-    BranchExp branchExp = getPredBranchExp(predecessor, insn);
-    Integer branchIdx = insnToIdx.get(insn);
-    if (branchIdx == null) {
-      branchIdx = branchExp.add(exp);
-      insnToIdx.put(insn, branchIdx);
-    } 
-    // No need to update if the branch alreadly exists.
-    return false;
-  }
+    // Successors in the forest, grouped by instruction.
+    int[] childStart = new int[instructionCount + 1];
+    for (int insn = 0; insn < instructionCount; insn++) {
+      if (predecessors[insn] != NONE) {
+        childStart[predecessors[insn] + 1]++;
+      }
+    }
+    for (int insn = 0; insn < instructionCount; insn++) {
+      childStart[insn + 1] += childStart[insn];
+    }
+    int[] children = new int[childStart[instructionCount]];
+    int[] pending = new int[instructionCount]; // Successors not swept yet
+    for (int insn = 0; insn < instructionCount; insn++) {
+      int pred = predecessors[insn];
+      if (pred != NONE) {
+        children[childStart[pred] + pending[pred]++] = insn;
+      }
+    }
 
-  /** Finishing the method */
-  @Override
-  public void visitEnd() {
-    for (Jump jump : jumps) {
-      Instruction insn = labelToInsn.get(jump.target);
-      insn.setPredecessor(jump.source);
-      predecessors.put(insn, jump.source);
+    // Probes, grouped by instruction in the order of probe ids.
+    Arrays.sort(probeToInsn, 0, probeCount);
+    int[] probeStart = new int[instructionCount + 1];
+    for (int p = 0; p < probeCount; p++) {
+      probeStart[(int) probeToInsn[p] + 1]++;
+    }
+    for (int insn = 0; insn < instructionCount; insn++) {
+      probeStart[insn + 1] += probeStart[insn];
+    }
+    int[] probes = new int[probeCount];
+    int[] filled = new int[instructionCount];
+    for (int p = 0; p < probeCount; p++) {
+      int insn = (int) probeToInsn[p];
+      probes[probeStart[insn] + filled[insn]++] = (int) (probeToInsn[p] >>> 32);
     }
 
-    // Compute CovExp for every instruction.
-    for (Map.Entry<Integer, Instruction> entry : probeToInsn.entrySet()) {
-      int probeId = entry.getKey();
-      Instruction ins = entry.getValue();
-
-      Instruction insn = ins;
-      CovExp exp = new ProbeExp(probeId);
-
-      // Compute CovExp for the probed instruction.
-      CovExp existingExp = insnToCovExp.get(insn);
-      if (existingExp != null) {
-        // The instruction already has a branch, add the probeExp as
-        // a new branch.
-        if (existingExp instanceof BranchExp) {
-          BranchExp branchExp = (BranchExp) existingExp;
-          branchExp.add(exp);
-        } else {
-          // This can only happen if the instruction is a predecessor and also
-          // has probe point, but the branch count is not > 1. 
-          System.err.println("Internal data inconsistent");
-        }
-      } else {
-        if (insn.getBranches() > 1) {
-          exp = exp.branchExp();
+    // Sweep from the leaves. minProbe is the smallest probe id reaching an instruction.
+    CovExp[] insnToCovExp = new CovExp[instructionCount];
+    insnExps = insnToCovExp;
+    int[] minProbe = new int[instructionCount];
+    int[] queue = new int[instructionCount];
+    int head = 0;
+    int tail = 0;
+    for (int insn = 0; insn < instructionCount; insn++) {
+      if (pending[insn] == 0) {
+        queue[tail++] = insn;
+      }
+    }
+    EntryBuffer entries = new EntryBuffer();
+    while (head < tail) {
+      int insn = queue[head++];
+      entries.clear();
+      for (int k = probeStart[insn]; k < probeStart[insn + 1]; k++) {
+        entries.add(probes[k], pool == null ? new ProbeExp(probes[k]) : pool.probe(probes[k]));
+      }
+      for (int k = childStart[insn]; k < childStart[insn + 1]; k++) {
+        int child = children[k];
+        if (insnToCovExp[child] != null) {
+          entries.add(minProbe[child], insnToCovExp[child]);
         }
-        insnToCovExp.put(insn, exp);
       }
 
-      Instruction predecessor = predecessors.get(insn);
-      while (predecessor != null) {
-        if (predecessor.getBranches() > 1) {
-          Boolean isNew = updateBranchPredecessor(predecessor, insn, exp);
-          if (!isNew) {
-            break;
-          } else {
-            exp = insnToCovExp.get(predecessor);
+      if (entries.size > 0) {
+        entries.sort();
+        minProbe[insn] = entries.keys[0];
+        if (branches[insn] > 1) {
+          List<CovExp> list = new ArrayList<CovExp>(entries.size);
+          for (int e = 0; e < entries.size; e++) {
+            list.add(entries.exps[e]);
           }
+          insnToCovExp[insn] = pool == null ? new BranchExp(list) : pool.branch(list);
         } else {
-          // No branch at predecessor, use the same CovExp
-          insnToCovExp.put(predecessor, exp);
+          if (entries.size > 1) {
+            // This can only happen if the instruction has more than one successor or
+            // probe but its branch count is not > 1.
+            System.err.println("Internal data inconsistent");
+          }
+          insnToCovExp[insn] = entries.exps[0];
         }
-        insn = predecessor;
-        predecessor = predecessors.get(insn);
+      }
+
+      int pred = predecessors[insn];
+      if (pred != NONE && --pending[pred] == 0) {
+        queue[tail++] = pred;
       }
     }
 
-    // Merge branches in the instructions on the same line
-    for (Instruction insn : instructions) {
-      if (insn.getBranches() > 1) {
-        CovExp insnExp = insnToCovExp.get(insn);
+    // Merge branches in the instructions on the same line. The BranchExp of an instruction
+    // may also be a branch of another instruction, so it is never merged into: the first
+    // merge of a line copies its BranchExp.
+    List<Integer> mergedLines = new ArrayList<Integer>();
+    for (int insn = 0; insn < instructionCount; insn++) {
+      if (branches[insn] > 1) {
+        CovExp insnExp = insnToCovExp[insn];
         if (insnExp != null && (insnExp instanceof BranchExp)) {
           BranchExp exp = (BranchExp) insnExp;
-          BranchExp lineExp = lineToBranchExp.get(insn.getLine());
+          BranchExp lineExp = lineToBranchExp.get(lines[insn]);
           if (lineExp == null) {
-            lineToBranchExp.put(insn.getLine(), exp);
+            lineToBranchExp.put(lines[insn], exp);
           } else {
+            if (!mergedLines.contains(lines[insn])) {
+              lineExp = new BranchExp(new ArrayList<CovExp>(lineExp.getBranches()));
+              lineToBranchExp.put(lines[insn], lineExp);
+              mergedLines.add(lines[insn]);
+            }
             lineExp.merge(exp);
           }
         } else {
@@ -358,18 +427,139 @@ public class MethodProbesMapper extends MethodProbesVisitor {
         }
       }
     }
+    if (pool != null) {
+      // Only the complete lines are interned.
+      for (Integer line : mergedLines) {
+        lineToBranchExp.put(line, pool.branch(lineToBranchExp.get(line).getBranches()));
+      }
+    }
   }
 
   /**
-    * Jumps between instructions and labels
-    */
-  class Jump {
-    public final Instruction source;
-    public final Label target;
-
-    public Jump(Instruction i, Label l) {
-      source = i;
-      target = l;
+   * The probes of each line with code, in increasing order: a line is executed if one of its
+   * probes is. Unlike the result, the lines without branches are included. The method is
+   * resolved if needed.
+   */
+  public Map<Integer, int[]> getLineProbes() {
+    resolve();
+    // The successors of an instruction in the forest are reached through it, so only the
+    // first instruction of a line on each path is needed.
+    Map<Integer, BitSet> lineToProbes = new TreeMap<Integer, BitSet>();
+    for (int insn = 0; insn < instructionCount; insn++) {
+      int pred = predecessors[insn];
+      if (insnExps[insn] == null || (pred != NONE && lines[pred] == lines[insn])) {
+        continue;
+      }
+      BitSet probes = lineToProbes.get(lines[insn]);
+      if (probes == null) {
+        probes = new BitSet();
+        lineToProbes.put(lines[insn], probes);
+      }
+      addProbes(insnExps[insn], probes);
+    }
+    Map<Integer, int[]> result = new TreeMap<Integer, int[]>();
+    for (Map.Entry<Integer, BitSet> entry : lineToProbes.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().stream().toArray());
+    }
+    return result;
+  }
+
+  private static void addProbes(CovExp exp, BitSet probes) {
+    if (exp instanceof ProbeExp) {
+      probes.set(((ProbeExp) exp).getProbeId());
+    } else {
+      for (CovExp branch : ((BranchExp) exp).getBranches()) {
+        addProbes(branch, probes);
+      }
+    }
+  }
+
+  /** The CovExps reaching an instruction, with the smallest probe id of each. */
+  private static class EntryBuffer {
+    int[] keys = new int[4];
+    CovExp[] exps = new CovExp[4];
+    int size = 0;
+
+    void clear() {
+      Arrays.fill(exps, 0, size, null);
+      size = 0;
+    }
+
+    void add(int key, CovExp exp) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, 2 * size);
+        exps = Arrays.copyOf(exps, 2 * size);
+      }
+      keys[size] = key;
+      exps[size] = exp;
+      size++;
+    }
+
+    // Insertion sort by key, there are usually only a few entries.
+    void sort() {
+      for (int i = 1; i < size; i++) {
+        int key = keys[i];
+        CovExp exp = exps[i];
+        int j = i - 1;
+        while (j >= 0 && keys[j] > key) {
+          keys[j + 1] = keys[j];
+          exps[j + 1] = exps[j];
+          j--;
+        }
+        keys[j + 1] = key;
+        exps[j + 1] = exp;
+      }
+    }
+  }
+
+  /**
+   * An identity map from labels to instruction indices. The info field of a label is
+   * owned by the JaCoCo LabelInfo, so labels are hashed by identity, and the indices are
+   * stored without boxing.
+   */
+  private static class LabelIndex {
+    private Label[] keys = new Label[16];
+    private int[] values = new int[16];
+    private int size = 0;
+
+    void put(Label label, int insn) {
+      if (2 * (size + 1) > keys.length) {
+        rehash(2 * keys.length);
+      }
+      int slot = slot(keys, label);
+      if (keys[slot] == null) {
+        keys[slot] = label;
+        size++;
+      }
+      values[slot] = insn;
+    }
+
+    int get(Label label) {
+      int slot = slot(keys, label);
+      return keys[slot] == null ? NONE : values[slot];
+    }
+
+    private static int slot(Label[] keys, Label label) {
+      int mask = keys.length - 1;
+      int slot = System.identityHashCode(label) & mask;
+      while (keys[slot] != null && keys[slot] != label) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private void rehash(int capacity) {
+      Label[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new Label[capacity];
+      values = new int[capacity];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          int slot = slot(keys, oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          values[slot] = oldValues[i];
+        }
+      }
     }
   }
 }
@@ -0,0 +1,96 @@
+package org.jacoco.extra.internal;
+
+import java.util.List;
+
+/**
+ * Evaluates one mapping against the probes of many execution data sessions at once.
+ *
+ * <p>The probe arrays are first transposed into one bit set of sessions per probe. The
+ * sessions covering a branch are then the union of the bit sets of its probes, computed
+ * with one OR per 64 sessions. Like {@link BranchEvaluator}, the evaluator keeps no state
+ * between calls.
+ */
+public class MultiSessionEvaluator {
+  private final BranchMapping mapping;
+
+  public MultiSessionEvaluator(BranchMapping mapping) {
+    this.mapping = mapping;
+  }
+
+  public BranchMapping getMapping() {
+    return mapping;
+  }
+
+  /** Evaluate all the branches against the probes of each session. */
+  public SessionCoverage evaluate(List<boolean[]> sessions) {
+    int sessionWords = (sessions.size() + 63) >>> 6;
+    int probeCount = 0;
+    for (boolean[] probes : sessions) {
+      probeCount = Math.max(probeCount, probes.length);
+    }
+
+    // Row p holds the sessions in which probe p was executed.
+    long[] probeSessions = new long[probeCount * sessionWords];
+    for (int s = 0; s < sessions.size(); s++) {
+      boolean[] probes = sessions.get(s);
+      int word = s >>> 6;
+      long bit = 1L << s;
+      for (int p = 0; p < probes.length; p++) {
+        if (probes[p]) {
+          probeSessions[p * sessionWords + word] |= bit;
+        }
+      }
+    }
+    return evaluate(sessions.size(), probeCount, probeSessions);
+  }
+
+  /** Evaluate all the branches against the packed probes of each session. */
+  public SessionCoverage evaluatePacked(List<ProbeBits> sessions) {
+    int sessionWords = (sessions.size() + 63) >>> 6;
+    int probeCount = 0;
+    for (ProbeBits probes : sessions) {
+      probeCount = Math.max(probeCount, 64 * probes.getWordCount());
+    }
+
+    long[] probeSessions = new long[probeCount * sessionWords];
+    for (int s = 0; s < sessions.size(); s++) {
+      ProbeBits probes = sessions.get(s);
+      int word = s >>> 6;
+      long bit = 1L << s;
+      for (int w = 0; w < probes.getWordCount(); w++) {
+        long probeWord = probes.getWord(w);
+        while (probeWord != 0L) {
+          int p = (w << 6) + Long.numberOfTrailingZeros(probeWord);
+          probeWord &= probeWord - 1;
+          probeSessions[p * sessionWords + word] |= bit;
+        }
+      }
+    }
+    return evaluate(sessions.size(), probeCount, probeSessions);
+  }
+
+  private SessionCoverage evaluate(int sessionCount, int probeCount, long[] probeSessions) {
+    int sessionWords = (sessionCount + 63) >>> 6;
+    int branchCount = mapping.getTotalBranchCount();
+    long[] branchSessions = new long[branchCount * sessionWords];
+    for (int b = 0; b < branchCount; b++) {
+      int row = b * sessionWords;
+      int start = mapping.getMaskStart(b);
+      for (int k = 0; k < mapping.getMaskLength(b); k++) {
+        long mask = mapping.getMaskWord(b, k);
+        while (mask != 0L) {
+          int probe = ((start + k) << 6) + Long.numberOfTrailingZeros(mask);
+          mask &= mask - 1;
+          if (probe >= probeCount) {
+            break;
+          }
+          int probeRow = probe * sessionWords;
+          for (int w = 0; w < sessionWords; w++) {
+            branchSessions[row + w] |= probeSessions[probeRow + w];
+          }
+        }
+      }
+    }
+    return new SessionCoverage(mapping, sessionCount, branchSessions);
+  }
+}
@@ -0,0 +1,171 @@
+package org.jacoco.extra.internal;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the stages of the mapping pipeline.
+ *
+ * <p>Every record is a stage of one class, with the size of the class file and the time
+ * spent. Times are counted per stage in histograms of power of two nanosecond buckets, and
+ * per class size bucket, also a power of two. The slowest class of each stage is kept to
+ * spot pathological classes. Recording is lock free except when a new slowest class is
+ * found, and a pipeline without metrics does not measure anything.
+ */
+public class PipelineMetrics {
+  /** The stages of the pipeline. */
+  public enum Stage {
+    /** ASM parsing and the probe mapper callbacks, which are interleaved. */
+    VISIT,
+    /** Resolution of the coverage expressions of the methods at their end. */
+    RESOLVE,
+    /** Merging of the lines of the methods into the lines of the class. */
+    MERGE,
+    /** Compilation of the class mapping to bit masks. */
+    COMPILE,
+    /**
+     * Getting the mapping from a {@link MappingProvider}, which analyzes the class on a miss.
+     * The stages above are not recorded for the classes of a provider.
+     */
+    PROVIDE,
+    /** Evaluation of the mapping with execution data. */
+    EVALUATE
+  }
+
+  private static final int BUCKETS = 64;
+  private static final int STAGES = Stage.values().length;
+
+  // Per stage: count and total nanos, then histograms of latency and size buckets.
+  private final AtomicLongArray counts = new AtomicLongArray(2 * STAGES);
+  private final AtomicLongArray latency = new AtomicLongArray(STAGES * BUCKETS);
+  private final AtomicLongArray sizeCounts = new AtomicLongArray(STAGES * BUCKETS);
+  private final AtomicLongArray sizeNanos = new AtomicLongArray(STAGES * BUCKETS);
+  private final long[] slowestNanos = new long[STAGES];
+  private final String[] slowestClass = new String[STAGES];
+
+  /** The bucket of a non negative value, 0 for 0 and 1 + floor(log2(value)) otherwise. */
+  public static int bucket(long value) {
+    return 64 - Long.numberOfLeadingZeros(value);
+  }
+
+  /** Record the time spent in a stage for a class of the given size in bytes. */
+  public void record(Stage stage, String className, int size, long nanos) {
+    int s = stage.ordinal();
+    counts.incrementAndGet(2 * s);
+    counts.addAndGet(2 * s + 1, nanos);
+    latency.incrementAndGet(s * BUCKETS + bucket(nanos));
+    int sizeBucket = bucket(size);
+    sizeCounts.incrementAndGet(s * BUCKETS + sizeBucket);
+    sizeNanos.addAndGet(s * BUCKETS + sizeBucket, nanos);
+    if (nanos > slowestNanos[s]) {
+      synchronized (this) {
+        if (nanos > slowestNanos[s]) {
+          slowestNanos[s] = nanos;
+          slowestClass[s] = className;
+        }
+      }
+    }
+  }
+
+  /** Number of records of a stage. */
+  public long getCount(Stage stage) {
+    return counts.get(2 * stage.ordinal());
+  }
+
+  /** Total time spent in a stage. */
+  public long getTotalNanos(Stage stage) {
+    return counts.get(2 * stage.ordinal() + 1);
+  }
+
+  /** Number of records of a stage which took from 2^(bucket - 1) to 2^bucket - 1 ns. */
+  public long getLatencyCount(Stage stage, int bucket) {
+    return latency.get(stage.ordinal() * BUCKETS + bucket);
+  }
+
+  /** Number of records of a stage for classes of the given size bucket. */
+  public long getSizeCount(Stage stage, int bucket) {
+    return sizeCounts.get(stage.ordinal() * BUCKETS + bucket);
+  }
+
+  /** Time spent in a stage for classes of the given size bucket. */
+  public long getSizeNanos(Stage stage, int bucket) {
+    return sizeNanos.get(stage.ordinal() * BUCKETS + bucket);
+  }
+
+  /** The name of the class which took the longest in a stage, or null. */
+  public synchronized String getSlowestClass(Stage stage) {
+    return slowestClass[stage.ordinal()];
+  }
+
+  /** The longest time of a single class in a stage. */
+  public synchronized long getSlowestNanos(Stage stage) {
+    return slowestNanos[stage.ordinal()];
+  }
+
+  /**
+   * Write the metrics as a JSON object with one member per stage. Histograms are objects
+   * keyed by the upper bound of their buckets, and empty buckets are left out.
+   */
+  public void writeJson(Writer out) throws IOException {
+    out.write('{');
+    for (Stage stage : Stage.values()) {
+      int s = stage.ordinal();
+      if (s > 0) {
+        out.write(',');
+      }
+      out.write("\"" + stage.name().toLowerCase(Locale.ROOT) + "\":{");
+      out.write("\"count\":" + getCount(stage) + ",\"nanos\":" + getTotalNanos(stage));
+      out.write(",\"latency\":{");
+      boolean first = true;
+      for (int b = 0; b < BUCKETS; b++) {
+        long count = latency.get(s * BUCKETS + b);
+        if (count > 0) {
+          out.write((first ? "" : ",") + "\"" + upperBound(b) + "\":" + count);
+          first = false;
+        }
+      }
+      out.write("},\"size\":{");
+      first = true;
+      for (int b = 0; b < BUCKETS; b++) {
+        long count = sizeCounts.get(s * BUCKETS + b);
+        if (count > 0) {
+          out.write((first ? "" : ",") + "\"" + upperBound(b) + "\":{\"count\":" + count
+              + ",\"nanos\":" + sizeNanos.get(s * BUCKETS + b) + "}");
+          first = false;
+        }
+      }
+      out.write('}');
+      String slowest = getSlowestClass(stage);
+      if (slowest != null) {
+        out.write(",\"slowest\":{\"class\":\"" + escape(slowest) + "\",\"nanos\":"
+            + getSlowestNanos(stage) + "}");
+      }
+      out.write('}');
+    }
+    out.write('}');
+  }
+
+  /** The metrics as a JSON string, see {@link #writeJson}. */
+  public String toJson() {
+    StringWriter out = new StringWriter();
+    try {
+      writeJson(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toString();
+  }
+
+  // The largest value of a bucket.
+  private static long upperBound(int bucket) {
+    return bucket == 0 ? 0 : (1L << bucket) - 1;
+  }
+
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+}
@@ -0,0 +1,77 @@
+package org.jacoco.extra.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * The values of the probes of a class, packed in 64 bit words.
+ *
+ * <p>Bit i of word w is the value of probe 64 * w + i, the layout of
+ * {@link CompiledMapping#pack}. The words are kept in a LongBuffer, either on the heap or
+ * off-heap in a direct buffer, so that the probes of many sessions can be held with one bit
+ * per probe outside of the Java heap. Probes beyond the last word are not executed.
+ */
+public final class ProbeBits {
+  private final LongBuffer words;
+  private final int wordCount;
+
+  private ProbeBits(LongBuffer words) {
+    this.words = words;
+    this.wordCount = words.limit();
+  }
+
+  /** Pack the probes of JaCoCo execution data on the heap. */
+  public static ProbeBits of(final boolean[] probes) {
+    return wrap(CompiledMapping.pack(probes));
+  }
+
+  /** Pack the probes of JaCoCo execution data in an off-heap direct buffer. */
+  public static ProbeBits direct(final boolean[] probes) {
+    int wordCount = (probes.length + 63) >>> 6;
+    LongBuffer words = ByteBuffer.allocateDirect(8 * wordCount)
+        .order(ByteOrder.nativeOrder()).asLongBuffer();
+    long word = 0L;
+    for (int i = 0; i < probes.length; i++) {
+      if (probes[i]) {
+        word |= 1L << i;
+      }
+      if ((i & 63) == 63 || i == probes.length - 1) {
+        words.put(i >>> 6, word);
+        word = 0L;
+      }
+    }
+    return new ProbeBits(words);
+  }
+
+  /** Use the given words, which are not copied. */
+  public static ProbeBits wrap(long[] words) {
+    return new ProbeBits(LongBuffer.wrap(words));
+  }
+
+  /** Use the remaining words of the buffer, which are not copied. */
+  public static ProbeBits wrap(LongBuffer words) {
+    return new ProbeBits(words.slice());
+  }
+
+  /** Number of words. */
+  public int getWordCount() {
+    return wordCount;
+  }
+
+  /** The w-th word, w must be less than the word count. */
+  public long getWord(int w) {
+    return words.get(w);
+  }
+
+  /** The value of a probe. */
+  public boolean get(int probe) {
+    int w = probe >>> 6;
+    return w < wordCount && (words.get(w) & (1L << probe)) != 0L;
+  }
+
+  /** Whether the words are stored off-heap. */
+  public boolean isDirect() {
+    return words.isDirect();
+  }
+}
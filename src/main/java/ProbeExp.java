@@ -7,8 +7,17 @@ public class ProbeExp extends CovExp {
     probeId = id;
   }
 
+  public int getProbeId() {
+    return probeId;
+  }
+
   @Override
   public boolean eval(final boolean[] probes) {
     return probes[probeId];
   }
+
+  @Override
+  public boolean eval(ProbeBits probes) {
+    return probes.get(probeId);
+  }
 }
\ No newline at end of file
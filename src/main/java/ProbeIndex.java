@@ -0,0 +1,105 @@
+package org.jacoco.extra.internal;
+
+/**
+ * The reverse of a branch mapping: for each probe, the branches which use it and their
+ * lines.
+ *
+ * <p>The entries of all the probes are stored in int arrays, the entries of probe p being
+ * at [getStart(p), getEnd(p)) in ascending branch order. Each entry is a branch of the
+ * mapping and the index of its line.
+ */
+public class ProbeIndex {
+  private final int[] start;
+  private final int[] branches;
+  private final int[] lineIndices;
+  private final int[] lines;
+
+  public ProbeIndex(BranchMapping mapping) {
+    int branchCount = mapping.getTotalBranchCount();
+    int probeCount = 0;
+    for (int b = 0; b < branchCount; b++) {
+      int words = mapping.getMaskLength(b);
+      for (int k = words - 1; k >= 0; k--) {
+        long mask = mapping.getMaskWord(b, k);
+        if (mask != 0L) {
+          int last = ((mapping.getMaskStart(b) + k) << 6) + 63 - Long.numberOfLeadingZeros(mask);
+          probeCount = Math.max(probeCount, last + 1);
+          break;
+        }
+      }
+    }
+
+    lines = new int[mapping.getLineCount()];
+    int[] branchToLine = new int[branchCount];
+    for (int idx = 0; idx < lines.length; idx++) {
+      lines[idx] = mapping.getLine(idx);
+      int first = mapping.getFirstBranch(idx);
+      for (int b = first; b < first + mapping.getBranchCount(idx); b++) {
+        branchToLine[b] = idx;
+      }
+    }
+
+    start = new int[probeCount + 1];
+    for (int b = 0; b < branchCount; b++) {
+      addBranch(mapping, b, null, null);
+    }
+    for (int p = 0; p < probeCount; p++) {
+      start[p + 1] += start[p];
+    }
+    branches = new int[start[probeCount]];
+    lineIndices = new int[start[probeCount]];
+    int[] filled = new int[probeCount];
+    for (int b = 0; b < branchCount; b++) {
+      addBranch(mapping, b, filled, branchToLine);
+    }
+  }
+
+  // Count the probes of a branch if filled is null, add the branch to them otherwise.
+  private void addBranch(BranchMapping mapping, int b, int[] filled, int[] branchToLine) {
+    int first = mapping.getMaskStart(b);
+    for (int k = 0; k < mapping.getMaskLength(b); k++) {
+      long mask = mapping.getMaskWord(b, k);
+      while (mask != 0L) {
+        int probe = ((first + k) << 6) + Long.numberOfTrailingZeros(mask);
+        mask &= mask - 1;
+        if (filled == null) {
+          start[probe + 1]++;
+        } else {
+          int i = start[probe] + filled[probe]++;
+          branches[i] = b;
+          lineIndices[i] = branchToLine[b];
+        }
+      }
+    }
+  }
+
+  /** Number of probes, one more than the largest probe used by a branch. */
+  public int getProbeCount() {
+    return start.length - 1;
+  }
+
+  /** Index of the first entry of a probe. */
+  public int getStart(int probe) {
+    return start[probe];
+  }
+
+  /** Index after the last entry of a probe. */
+  public int getEnd(int probe) {
+    return start[probe + 1];
+  }
+
+  /** The branch of the i-th entry. */
+  public int getBranch(int i) {
+    return branches[i];
+  }
+
+  /** The index of the line of the i-th entry, see {@link BranchMapping#getLine}. */
+  public int getLineIndex(int i) {
+    return lineIndices[i];
+  }
+
+  /** The line number of the i-th entry. */
+  public int getLine(int i) {
+    return lines[lineIndices[i]];
+  }
+}
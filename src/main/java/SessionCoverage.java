@@ -0,0 +1,62 @@
+package org.jacoco.extra.internal;
+
+import java.util.BitSet;
+
+/**
+ * The result of evaluating a mapping against many sessions: a branches by sessions matrix,
+ * stored as one bit set of sessions per branch.
+ */
+public class SessionCoverage {
+  private final BranchMapping mapping;
+  private final int sessionCount;
+  private final int sessionWords;
+  private final long[] branchSessions;
+
+  SessionCoverage(BranchMapping mapping, int sessionCount, long[] branchSessions) {
+    this.mapping = mapping;
+    this.sessionCount = sessionCount;
+    this.sessionWords = (sessionCount + 63) >>> 6;
+    this.branchSessions = branchSessions;
+  }
+
+  public BranchMapping getMapping() {
+    return mapping;
+  }
+
+  public int getSessionCount() {
+    return sessionCount;
+  }
+
+  /** Returns true if the branch is covered in the session. */
+  public boolean isCovered(int session, int branch) {
+    return (branchSessions[branch * sessionWords + (session >>> 6)] & (1L << session)) != 0L;
+  }
+
+  /** Returns the sessions in which the branch is covered. */
+  public BitSet getSessions(int branch) {
+    long[] words = new long[sessionWords];
+    System.arraycopy(branchSessions, branch * sessionWords, words, 0, sessionWords);
+    return BitSet.valueOf(words);
+  }
+
+  /** Number of sessions in which the branch is covered. */
+  public int getSessionCount(int branch) {
+    int count = 0;
+    for (int w = 0; w < sessionWords; w++) {
+      count += Long.bitCount(branchSessions[branch * sessionWords + w]);
+    }
+    return count;
+  }
+
+  /** The coverage of one session. */
+  public BranchCoverage getCoverage(int session) {
+    int branchCount = mapping.getTotalBranchCount();
+    long[] covered = new long[(branchCount + 63) >>> 6];
+    for (int b = 0; b < branchCount; b++) {
+      if (isCovered(session, b)) {
+        covered[b >>> 6] |= 1L << b;
+      }
+    }
+    return new BranchCoverage(mapping, covered);
+  }
+}
@@ -0,0 +1,233 @@
+package org.jacoco.extra.internal;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+
+import org.objectweb.asm.ClassReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the recorded test sessions which executed given lines, to select the tests to run
+ * for a change.
+ *
+ * <p>For each class, the index keeps a matrix of the sessions which executed each line,
+ * one bit per session, built from the executed probes of each session with a
+ * {@link ProbeIndex}. A line is executed by a session if one of its branches is covered.
+ * Only the lines with branches are in the mappings, so a class added with its mapping does
+ * not index its other lines. A class added with its definition has all its lines with code,
+ * each executed if one of the probes after it is. A change to a line which is not indexed
+ * selects no session; {@link #getUnindexedLines} finds these lines. The index is built by
+ * one thread and then queried by any number.
+ */
+public class TestImpactIndex {
+  private final List<String> sessionIds;
+  private final int sessionWords;
+  private final Map<String, ClassLines> classes = new HashMap<String, ClassLines>();
+
+  /** The lines of a class and the sessions which executed them, one row per line. */
+  private static class ClassLines {
+    final int[] lines;
+    final long[] sessions;
+
+    ClassLines(int[] lines, long[] sessions) {
+      this.lines = lines;
+      this.sessions = sessions;
+    }
+  }
+
+  /** Create an index of the sessions with the given ids, numbered in this order. */
+  public TestImpactIndex(List<String> sessionIds) {
+    this.sessionIds = new ArrayList<String>(sessionIds);
+    this.sessionWords = (sessionIds.size() + 63) >>> 6;
+  }
+
+  public int getSessionCount() {
+    return sessionIds.size();
+  }
+
+  public String getSessionId(int session) {
+    return sessionIds.get(session);
+  }
+
+  /**
+   * Add a class with the probes of each session, null for the sessions which did not
+   * execute the class.
+   *
+   * @param className the VM name of the class
+   */
+  public void addClass(String className, BranchMapping mapping, List<boolean[]> sessions) {
+    checkSessionCount(sessions);
+    ProbeIndex index = new ProbeIndex(mapping);
+    int[] lines = new int[mapping.getLineCount()];
+    for (int idx = 0; idx < lines.length; idx++) {
+      lines[idx] = mapping.getLine(idx);
+    }
+    long[] lineSessions = new long[lines.length * sessionWords];
+    for (int s = 0; s < sessions.size(); s++) {
+      boolean[] probes = sessions.get(s);
+      if (probes == null) {
+        continue;
+      }
+      int word = s >>> 6;
+      long bit = 1L << s;
+      int probeCount = Math.min(probes.length, index.getProbeCount());
+      for (int p = 0; p < probeCount; p++) {
+        if (probes[p]) {
+          for (int i = index.getStart(p); i < index.getEnd(p); i++) {
+            lineSessions[index.getLineIndex(i) * sessionWords + word] |= bit;
+          }
+        }
+      }
+    }
+    classes.put(className, new ClassLines(lines, lineSessions));
+  }
+
+  /** Add a class with the execution data of each session. */
+  public void addClass(long classId, String className, BranchMapping mapping,
+      List<ExecutionDataStore> sessions) {
+    addClass(className, mapping, probesOf(classId, sessions));
+  }
+
+  /**
+   * Add a class with the probes of each session, null for the sessions which did not
+   * execute the class. All the lines of the class with code are indexed, not only the lines
+   * with branches.
+   *
+   * @param reader the original class definition
+   */
+  public void addClass(ClassReader reader, List<boolean[]> sessions) {
+    checkSessionCount(sessions);
+    ClassProbesMapper mapper = new ClassProbesMapper(null, true);
+    reader.accept(new ClassProbesAdapter(mapper, false), 0);
+    Map<Integer, BitSet> lineToProbes = new TreeMap<Integer, BitSet>();
+    for (int m = 0; m < mapper.getMethodCount(); m++) {
+      for (Map.Entry<Integer, int[]> entry : mapper.getMethodLineProbes(m).entrySet()) {
+        BitSet probes = lineToProbes.get(entry.getKey());
+        if (probes == null) {
+          probes = new BitSet();
+          lineToProbes.put(entry.getKey(), probes);
+        }
+        for (int p : entry.getValue()) {
+          probes.set(p);
+        }
+      }
+    }
+    int[] lines = new int[lineToProbes.size()];
+    BitSet[] lineProbes = new BitSet[lines.length];
+    int idx = 0;
+    for (Map.Entry<Integer, BitSet> entry : lineToProbes.entrySet()) {
+      lines[idx] = entry.getKey();
+      lineProbes[idx++] = entry.getValue();
+    }
+    long[] lineSessions = new long[lines.length * sessionWords];
+    for (int s = 0; s < sessions.size(); s++) {
+      boolean[] probes = sessions.get(s);
+      if (probes == null) {
+        continue;
+      }
+      for (idx = 0; idx < lines.length; idx++) {
+        BitSet candidates = lineProbes[idx];
+        for (int p = candidates.nextSetBit(0); p >= 0 && p < probes.length;
+            p = candidates.nextSetBit(p + 1)) {
+          if (probes[p]) {
+            lineSessions[idx * sessionWords + (s >>> 6)] |= 1L << s;
+            break;
+          }
+        }
+      }
+    }
+    classes.put(reader.getClassName(), new ClassLines(lines, lineSessions));
+  }
+
+  /** Add a class by its original definition with the execution data of each session. */
+  public void addClass(long classId, ClassReader reader, List<ExecutionDataStore> sessions) {
+    addClass(reader, probesOf(classId, sessions));
+  }
+
+  private static List<boolean[]> probesOf(long classId, List<ExecutionDataStore> sessions) {
+    List<boolean[]> probes = new ArrayList<boolean[]>(sessions.size());
+    for (ExecutionDataStore store : sessions) {
+      ExecutionData data = store.get(classId);
+      probes.add(data == null ? null : data.getProbes());
+    }
+    return probes;
+  }
+
+  private void checkSessionCount(List<?> sessions) {
+    if (sessions.size() != getSessionCount()) {
+      throw new IllegalArgumentException(
+          "Expected " + getSessionCount() + " sessions, got " + sessions.size());
+    }
+  }
+
+  /** The sessions which executed one of the given lines of a class. */
+  public BitSet getSessions(String className, int[] changedLines) {
+    long[] words = new long[sessionWords];
+    addSessions(className, changedLines, words);
+    return BitSet.valueOf(words);
+  }
+
+  /** The sessions which executed one of the changed lines, given by VM class name. */
+  public BitSet getSessions(Map<String, int[]> changedLines) {
+    long[] words = new long[sessionWords];
+    for (Map.Entry<String, int[]> entry : changedLines.entrySet()) {
+      addSessions(entry.getKey(), entry.getValue(), words);
+    }
+    return BitSet.valueOf(words);
+  }
+
+  /**
+   * The given lines of a class which are not indexed, so their changes select no session. All
+   * the lines of a class which was not added are returned.
+   */
+  public int[] getUnindexedLines(String className, int[] changedLines) {
+    ClassLines classLines = classes.get(className);
+    if (classLines == null) {
+      return changedLines.clone();
+    }
+    int[] unindexed = new int[changedLines.length];
+    int count = 0;
+    for (int line : changedLines) {
+      if (Arrays.binarySearch(classLines.lines, line) < 0) {
+        unindexed[count++] = line;
+      }
+    }
+    return Arrays.copyOf(unindexed, count);
+  }
+
+  /** The changed lines which are not indexed, by VM class name, for the classes with any. */
+  public Map<String, int[]> getUnindexedLines(Map<String, int[]> changedLines) {
+    Map<String, int[]> result = new HashMap<String, int[]>();
+    for (Map.Entry<String, int[]> entry : changedLines.entrySet()) {
+      int[] unindexed = getUnindexedLines(entry.getKey(), entry.getValue());
+      if (unindexed.length > 0) {
+        result.put(entry.getKey(), unindexed);
+      }
+    }
+    return result;
+  }
+
+  private void addSessions(String className, int[] changedLines, long[] words) {
+    ClassLines classLines = classes.get(className);
+    if (classLines == null) {
+      return;
+    }
+    for (int line : changedLines) {
+      int idx = Arrays.binarySearch(classLines.lines, line);
+      if (idx >= 0) {
+        int row = idx * sessionWords;
+        for (int w = 0; w < sessionWords; w++) {
+          words[w] |= classLines.sessions[row + w];
+        }
+      }
+    }
+  }
+}
@@ -1,6 +1,10 @@
 package me.zhihan.jacoco.internal
 
-import scala.collection.mutable.ArrayBuffer
+import java.util.{IdentityHashMap, Map => JMap}
+import org.jacoco.extra.internal.{BranchExp => JBranchExp, CovExp => JCovExp,
+  ProbeBits, ProbeExp => JProbeExp}
+import scala.collection.JavaConversions._
+import scala.collection.mutable.{ArrayBuffer, Map}
 
 /** The coverage of an instruction can be evaluated by either a probe or 
  the disjunction of the coverage of several sub-branches. */
@@ -40,4 +44,31 @@ object CovExp {
       case BranchExp(branches) => branches map(eval) exists(x => x)
     }
   }
+
+  /** Evaluate with packed probes, for example ProbeBits.of(executionData.getProbes). */
+  def evaluate (probes: ProbeBits) (exp: CovExp) : Boolean = exp match {
+    case ProbeExp(id) => probes.get(id)
+    case BranchExp(branches) => branches exists(evaluate(probes))
+  }
+
+  /** Convert the result of a Java mapper. Shared sub-expressions stay shared. */
+  def fromJava(lines: JMap[Integer, JBranchExp]): Map[Int, BranchExp] = {
+    val converted = new IdentityHashMap[JCovExp, CovExp]()
+    def convert(exp: JCovExp): CovExp = {
+      var result = converted.get(exp)
+      if (result == null) {
+        result = exp match {
+          case p: JProbeExp => ProbeExp(p.getProbeId)
+          case b: JBranchExp => BranchExp(b.getBranches.map(convert)(collection.breakOut))
+        }
+        converted.put(exp, result)
+      }
+      result
+    }
+    val result: Map[Int, BranchExp] = Map()
+    lines.foreach { case (line, exp) =>
+      result(line.intValue) = convert(exp).asInstanceOf[BranchExp]
+    }
+    result
+  }
 }
@@ -1,35 +1,72 @@
 package me.zhihan.jacoco
 
-import me.zhihan.jacoco.internal.{Mapper, BranchExp, CovExp}
+import me.zhihan.jacoco.internal.Mapper
 import org.jacoco.core.data.{ExecutionDataStore, ExecutionData}
 import org.jacoco.core.internal.data.CRC64
+import org.jacoco.extra.internal.{BranchEvaluator, CoverageSummary, ExecFileMerger,
+  PipelineMetrics}
 import org.objectweb.asm.ClassReader
-import scala.collection.mutable.Map
+import java.io.{File, OutputStreamWriter}
+import scala.collection.JavaConversions._
 
-class CoverageReporter(val store: ExecutionDataStore) {
+/** Reports the branch coverage of classes to a sink, one class at a time. */
+class CoverageReporter(val store: ExecutionDataStore, val sink: CoverageSink) {
   val mapper = new Mapper()
 
+  /** Report to the standard output in text form. */
+  def this(store: ExecutionDataStore) =
+    this(store, new TextSink(new OutputStreamWriter(System.out), false))
+
+  /** Metrics of the mapping and evaluation of the classes, not recorded if null. */
+  var metrics: PipelineMetrics = null
+
+  private var covered = new Array[Boolean](16)
+
   def analyzeClass(reader: ClassReader) {
     val classid = CRC64.checksum(reader.b)
     val execData: ExecutionData = store.get(classid)
 
     if (execData != null) {
-      val probes = execData.getProbes()
-      val lineToBranchExp: Map[Int, BranchExp] =
-        mapper.analyzeClass(reader)
-      lineToBranchExp.foreach { case (line: Int, branchExp: BranchExp) =>
-        if (branchExp.branches.size > 1) {
-          print(s"Line $line: ") 
-          branchExp.branches.foreach { exp =>
-            if (CovExp.evaluate (probes) (exp)) {
-              print("T")
-            } else {
-              print("F")
-            }
+      val mapping = mapper.compileClass(reader, metrics)
+      val start = if (metrics == null) 0L else System.nanoTime()
+      val coverage = new BranchEvaluator(mapping).evaluate(execData.getProbes())
+      if (metrics != null) {
+        metrics.record(PipelineMetrics.Stage.EVALUATE, reader.getClassName, reader.b.length,
+          System.nanoTime() - start)
+      }
+      sink.startClass(reader.getClassName, classid)
+      var idx = 0
+      while (idx < mapping.getLineCount) {
+        val count = mapping.getBranchCount(idx)
+        if (count > 1) {
+          if (covered.length < count) {
+            covered = new Array[Boolean](count)
+          }
+          var i = 0
+          while (i < count) {
+            covered(i) = coverage.isCovered(idx, i)
+            i += 1
           }
-          println("")
+          sink.line(mapping.getLine(idx), covered, count)
         }
+        idx += 1
       }
+      sink.endClass()
     }
   }
+
+  /** Summarize the coverage of the lines and methods of a class, null without data. */
+  def summarizeClass(reader: ClassReader): CoverageSummary = {
+    val execData = store.get(CRC64.checksum(reader.b))
+    if (execData == null) null else CoverageSummary.analyze(reader, execData.getProbes())
+  }
+
+  /** Close the sink. */
+  def close() { sink.close() }
+}
+
+object CoverageReporter {
+  /** A reporter of the execution data of many .exec files, merged in parallel. */
+  def fromExecFiles(files: Seq[File], sink: CoverageSink): CoverageReporter =
+    new CoverageReporter(new ExecFileMerger().merge(files), sink)
 }
@@ -0,0 +1,150 @@
+package me.zhihan.jacoco
+
+import java.io.{BufferedOutputStream, BufferedWriter, DataOutputStream, OutputStream,
+  Writer}
+
+/** A sink receives branch coverage results class by class, as they are produced. */
+trait CoverageSink {
+  /** Start the results of a class. */
+  def startClass(name: String, id: Long)
+
+  /** Branch coverage of a line, covered(i) for i < count tells if branch i is covered.
+    The array may be reused by the caller after the call returns. */
+  def line(line: Int, covered: Array[Boolean], count: Int)
+
+  /** End the results of the current class. */
+  def endClass()
+
+  /** Flush and close the underlying output. */
+  def close()
+}
+
+/** Human readable output, one "Line N: TFT" row per line. */
+class TextSink(writer: Writer, owner: Boolean = true) extends CoverageSink {
+  private val out = new BufferedWriter(writer)
+
+  def startClass(name: String, id: Long) {}
+
+  def line(line: Int, covered: Array[Boolean], count: Int) {
+    out.write("Line ")
+    out.write(Integer.toString(line))
+    out.write(": ")
+    var i = 0
+    while (i < count) {
+      out.write(if (covered(i)) 'T' else 'F')
+      i += 1
+    }
+    out.newLine()
+  }
+
+  def endClass() { out.flush() }
+
+  def close() {
+    out.flush()
+    if (owner) {
+      out.close()
+    }
+  }
+}
+
+/** JSON lines output, one object per class:
+  {"class":"a/B","id":"0123456789abcdef","lines":[{"line":11,"branches":"TF"}]} */
+class JsonLinesSink(writer: Writer) extends CoverageSink {
+  private val out = new BufferedWriter(writer)
+  private var firstLine = true
+
+  private def writeString(s: String) {
+    out.write('"')
+    var i = 0
+    while (i < s.length) {
+      val c = s.charAt(i)
+      if (c == '"' || c == '\\') {
+        out.write('\\')
+        out.write(c)
+      } else if (c < 0x20) {
+        out.write("\\u%04x".format(c.toInt))
+      } else {
+        out.write(c)
+      }
+      i += 1
+    }
+    out.write('"')
+  }
+
+  def startClass(name: String, id: Long) {
+    out.write("{\"class\":")
+    writeString(name)
+    out.write(",\"id\":\"")
+    out.write("%016x".format(id))
+    out.write("\",\"lines\":[")
+    firstLine = true
+  }
+
+  def line(line: Int, covered: Array[Boolean], count: Int) {
+    if (!firstLine) {
+      out.write(',')
+    }
+    firstLine = false
+    out.write("{\"line\":")
+    out.write(Integer.toString(line))
+    out.write(",\"branches\":\"")
+    var i = 0
+    while (i < count) {
+      out.write(if (covered(i)) 'T' else 'F')
+      i += 1
+    }
+    out.write("\"}")
+  }
+
+  def endClass() {
+    out.write("]}")
+    out.newLine()
+    out.flush()
+  }
+
+  def close() { out.close() }
+}
+
+/** Compact binary output. Every record starts with a tag byte:
+  CLASS (name as UTF, id as long), LINE (line as int, branch count as int, then one
+  bit per branch, packed in bytes, lowest branch first) or END of a class. */
+class BinarySink(stream: OutputStream) extends CoverageSink {
+  private val out = new DataOutputStream(new BufferedOutputStream(stream))
+
+  def startClass(name: String, id: Long) {
+    out.writeByte(BinarySink.CLASS)
+    out.writeUTF(name)
+    out.writeLong(id)
+  }
+
+  def line(line: Int, covered: Array[Boolean], count: Int) {
+    out.writeByte(BinarySink.LINE)
+    out.writeInt(line)
+    out.writeInt(count)
+    var bits = 0
+    var i = 0
+    while (i < count) {
+      if (covered(i)) {
+        bits |= 1 << (i & 7)
+      }
+      if ((i & 7) == 7 || i == count - 1) {
+        out.writeByte(bits)
+        bits = 0
+      }
+      i += 1
+    }
+  }
+
+  def endClass() {
+    out.writeByte(BinarySink.END)
+    out.flush()
+  }
+
+  def close() { out.close() }
+}
+
+object BinarySink {
+  val CLASS = 1
+  val LINE = 2
+  val END = 3
+}
@@ -19,41 +19,12 @@ import java.nio.file.Path
 import java.nio.file.FileSystem
 import java.nio.file.FileSystems
 
-import scala.collection.mutable.Map
 import scala.collection.JavaConversions._
 
 object Helper {
 
-  /**
-    * An in-memory class loader that are used to load instrumented classes.
-    */
-  class MemoryClassLoader(parent:ClassLoader) extends ClassLoader(parent) {
-    val definitions = Map[String, Array[Byte]]()
-
-    /**
-      * Add a in-memory representation of a class.
-      * 
-      * @param name
-      *            name of the class
-      * @param bytes
-      *            class definition
-      */
-    def addDefinition(name:String, bytes:Array[Byte]) {
-      definitions(name) = bytes
-    }
-
-    def isDefined(name:String) = definitions.contains(name)
-
-    override protected def loadClass(name:String, resolve:Boolean): Class[_] = {
-      val bytes = definitions.get(name);
-      bytes match {
-        case Some(b) => defineClass(name, b, 0, b.length)
-        case None => {
-          super.loadClass(name, resolve)
-        }
-      }
-    }
-  }
+  /** The in-memory class loader used to load instrumented classes. */
+  type MemoryClassLoader = org.jacoco.extra.internal.MemoryClassLoader
 
   def getTargetClass(name: String): InputStream = {
     val resource = "/" + name.replace(".", "/") + ".class"
@@ -74,6 +45,12 @@ object Helper {
     classLoader.addDefinition(name, bytes)
   }
 
+  /** Instrument the classes and add their definitions to the in-memory class loader */
+  def addDefinitions(names: Seq[String]) {
+    val definitions = names.map(name => name -> instrument(name)).toMap
+    classLoader.addDefinitions(definitions)
+  }
+
   def newInstance(name:String) = {
     val clazz = classLoader.loadClass(name)
     clazz.newInstance()
@@ -89,6 +66,13 @@ object Helper {
     runtime.shutdown
   }
 
+  /** Collect the execution data without resetting it or shutting down the runtime. */
+  def snapshot(data: RuntimeData) = {
+    val executionData = new ExecutionDataStore()
+    data.collect(executionData, new SessionInfoStore(), false)
+    executionData
+  }
+
   def collect(data: RuntimeData) = {
     val executionData = new ExecutionDataStore()
     val sessionInfos = new SessionInfoStore()
@@ -0,0 +1,82 @@
+package me.zhihan.jacoco
+
+import org.jacoco.core.data.{ExecutionDataStore, SessionInfoStore}
+import org.jacoco.core.runtime.RuntimeData
+import org.jacoco.extra.internal.{BranchCoverage, ClassScanner, DeltaEvaluator,
+  MappingProvider, MemoryMappingCache}
+import org.objectweb.asm.ClassReader
+import java.util.concurrent.{Executors, ScheduledExecutorService, ThreadFactory, TimeUnit}
+import scala.collection.concurrent.TrieMap
+import scala.collection.JavaConversions._
+import scala.util.control.NonFatal
+
+/** Branch coverage of a running JVM, read as often as needed without stopping it.
+
+  Classes are registered with their original bytes, and their mappings are computed once,
+  through the given provider. A snapshot collects the execution data of the runtime without
+  resetting it, and evaluates the registered classes with data again, only for the probes
+  which changed since the previous snapshot. A class whose branches did not change keeps
+  the BranchCoverage of the previous snapshot, nothing is copied for it. The probe arrays
+  are those of the runtime, not copies, so the runtime is only locked while they are
+  listed. */
+class LiveCoverage(val data: RuntimeData, provider: MappingProvider) {
+  private val evaluators = TrieMap[Long, (String, DeltaEvaluator)]()
+  @volatile private var scheduler: ScheduledExecutorService = null
+
+  /** Keep up to one million lines, branches and mask words of mappings in memory. */
+  def this(data: RuntimeData) = this(data, new MemoryMappingCache(1000000L))
+
+  /** Register a class by its original, not instrumented, definition. */
+  def register(bytes: Array[Byte]) {
+    val classId = ClassScanner.checksum(bytes, 0, bytes.length)
+    val reader = new ClassReader(bytes)
+    val mapping = provider.get(classId, reader)
+    evaluators(classId) = (reader.getClassName, new DeltaEvaluator(mapping))
+  }
+
+  /** The branch coverage of the registered classes which have execution data, by VM name. */
+  def snapshot(): Map[String, BranchCoverage] = synchronized {
+    val store = Helper.snapshot(data)
+    store.getContents.toList.flatMap { execData =>
+      evaluators.get(execData.getId).map { case (name, evaluator) =>
+        name -> evaluator.update(execData.getProbes)
+      }
+    }.toMap
+  }
+
+  /** Take a snapshot every period milliseconds on a daemon thread, until stop is called.
+
+    An exception of the snapshot or the listener is passed to onError, which prints it by
+    default, and the following snapshots are still taken. */
+  def start(period: Long, onError: Throwable => Unit = _.printStackTrace())(
+      listener: Map[String, BranchCoverage] => Unit) {
+    stop()
+    val executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+      def newThread(r: Runnable) = {
+        val thread = new Thread(r, "live-coverage")
+        thread.setDaemon(true)
+        thread
+      }
+    })
+    executor.scheduleWithFixedDelay(new Runnable {
+      def run() {
+        // An exception escaping run would cancel all the following snapshots.
+        try {
+          listener(snapshot())
+        } catch {
+          case NonFatal(e) => onError(e)
+        }
+      }
+    }, 0, period, TimeUnit.MILLISECONDS)
+    scheduler = executor
+  }
+
+  /** Stop the periodic snapshots. */
+  def stop() {
+    if (scheduler != null) {
+      scheduler.shutdown()
+      scheduler.awaitTermination(1, TimeUnit.SECONDS)
+      scheduler = null
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.data.CRC64;
+
+import me.zhihan.jacoco.internal.MyC;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class BatchAnalyzerTest {
+  private static final String CLASS_NAME = "me/zhihan/jacoco/internal/MyC";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] bytes;
+  private ExecutionDataStore store;
+
+  @Before
+  public void setup() throws Exception {
+    bytes = TestClasses.bytesOf(MyC.class);
+
+    // Only the first branch of each if statement is taken.
+    store = new ExecutionDataStore();
+    store.put(new ExecutionData(CRC64.checksum(bytes), CLASS_NAME,
+        new boolean[] {true, true, false, true, false, true}));
+  }
+
+  private void checkCoverage(Map<String, BranchCoverage> results) {
+    assertThat(results).hasSize(1);
+    BranchCoverage coverage = results.get(CLASS_NAME);
+    BranchMapping mapping = coverage.getMapping();
+    assertThat(mapping.getLineCount()).isEqualTo(2);
+    assertThat(mapping.getLine(0)).isEqualTo(11);
+    assertThat(coverage.getCoveredCount(0)).isEqualTo(1);
+    assertThat(coverage.getCoveredCount(1)).isEqualTo(1);
+  }
+
+  @Test
+  public void testDirectory() throws Exception {
+    File dir = new File(folder.getRoot(), "me/zhihan/jacoco/internal");
+    dir.mkdirs();
+    Files.write(bytes, new File(dir, "MyC.class"));
+    Files.write("not a class".getBytes("UTF-8"), new File(dir, "README"));
+
+    BatchAnalyzer analyzer = new BatchAnalyzer(store);
+    checkCoverage(analyzer.analyze(Arrays.asList(folder.getRoot())));
+  }
+
+  @Test
+  public void testJar() throws Exception {
+    File jar = folder.newFile("classes.jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    out.putNextEntry(new ZipEntry(CLASS_NAME + ".class"));
+    out.write(bytes);
+    out.closeEntry();
+    out.close();
+
+    BatchAnalyzer analyzer = new BatchAnalyzer(store);
+    checkCoverage(analyzer.analyze(Arrays.asList(jar)));
+  }
+
+  @Test
+  public void testNoExecutionData() {
+    BatchAnalyzer analyzer = new BatchAnalyzer(new ExecutionDataStore());
+    assertThat(analyzer.analyzeClasses(Arrays.asList(bytes))).isEmpty();
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    MappingCache cache = new MappingCache(folder.newFolder("cache"));
+    BatchAnalyzer analyzer = new BatchAnalyzer(store, ForkJoinPool.commonPool(), cache);
+    checkCoverage(analyzer.analyzeClasses(Arrays.asList(bytes)));
+
+    assertThat(cache.get(CRC64.checksum(bytes))).isNotNull();
+    checkCoverage(analyzer.analyzeClasses(Arrays.asList(bytes)));
+  }
+}
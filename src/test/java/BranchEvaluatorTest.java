@@ -0,0 +1,54 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class BranchEvaluatorTest {
+  private BranchEvaluator evaluator;
+
+  @Before
+  public void setup() {
+    BranchExp line1 = new ProbeExp(0).branchExp();
+    line1.add(new ProbeExp(1));
+    BranchExp line2 = new ProbeExp(2).branchExp();
+    line2.add(new ProbeExp(3));
+    line2.add(new ProbeExp(1));
+
+    Map<Integer, BranchExp> lines = new HashMap<Integer, BranchExp>();
+    lines.put(1, line1);
+    lines.put(2, line2);
+    evaluator = new BranchEvaluator(CompiledMapping.compile(lines));
+  }
+
+  @Test
+  public void testEvaluate() {
+    BranchCoverage coverage = evaluator.evaluate(new boolean[] {true, false, false, true});
+
+    assertThat(coverage.isCovered(0, 0)).isTrue();
+    assertThat(coverage.isCovered(0, 1)).isFalse();
+    assertThat(coverage.isCovered(1, 0)).isFalse();
+    assertThat(coverage.isCovered(1, 1)).isTrue();
+    assertThat(coverage.isCovered(1, 2)).isFalse();
+    assertThat(coverage.getCoveredCount(0)).isEqualTo(1);
+    assertThat(coverage.getCoveredCount(1)).isEqualTo(1);
+    assertThat(coverage.getCoveredCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testReuse() {
+    BranchCoverage first = evaluator.evaluate(new boolean[] {false, true, false, false});
+    BranchCoverage second = evaluator.evaluate(new boolean[] {true, false, false, false});
+
+    assertThat(first.isCovered(0, 1)).isTrue();
+    assertThat(first.isCovered(1, 2)).isTrue();
+    assertThat(second.isCovered(0, 1)).isFalse();
+    assertThat(second.isCovered(1, 2)).isFalse();
+    assertThat(first.getCoveredCount()).isEqualTo(2);
+    assertThat(second.getCoveredCount()).isEqualTo(1);
+  }
+}
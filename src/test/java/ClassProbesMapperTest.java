@@ -4,9 +4,13 @@ import org.junit.Test;
 import org.junit.Before;
 import org.junit.Assert;
 
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
 import org.jacoco.core.internal.flow.MethodProbesVisitor;
 
+import me.zhihan.jacoco.internal.MyC;
+
 import java.util.Map;
 
 public class ClassProbesMapperTest {
@@ -29,4 +33,78 @@ public class ClassProbesMapperTest {
         Map<Integer, BranchExp> result = mapper.result();
         Assert.assertTrue(result.isEmpty());
     }
+
+    private static ClassProbesMapper mapMyC(boolean lazy) throws Exception {
+        byte[] bytes = TestClasses.bytesOf(MyC.class);
+        ClassProbesMapper mapper = new ClassProbesMapper(null, lazy);
+        new ClassReader(bytes).accept(new ClassProbesAdapter(mapper, false), 0);
+        return mapper;
+    }
+
+    @Test
+    public void testLazyMethod() throws Exception {
+        ClassProbesMapper lazy = mapMyC(true);
+        Map<Integer, BranchExp> f = lazy.getMethodResult("f", "(I)I");
+        Assert.assertEquals(2, f.size());
+        Assert.assertEquals(2, f.get(11).getBranches().size());
+        Assert.assertTrue(lazy.getMethodResult("<init>", "()V").isEmpty());
+        Assert.assertNull(lazy.getMethodResult("f", "()V"));
+        Assert.assertSame(f, lazy.getMethodResult(1));
+    }
+
+    @Test
+    public void testLazyResult() throws Exception {
+        ClassProbesMapper lazy = mapMyC(true);
+        Map<Integer, BranchExp> eager = mapMyC(false).result();
+        Map<Integer, BranchExp> result = lazy.result();
+        Assert.assertEquals(TestClasses.describe(eager), TestClasses.describe(result));
+        Assert.assertArrayEquals(new int[] {11, 0, 2, 17, 0, 2}, lazy.getMethodRanges(1));
+    }
+
+    @Test
+    public void testLazySharedLine() throws Exception {
+        ClassProbesMapper lazy = new ClassProbesMapper(null, true);
+        new ClassReader(TestClasses.sharedLine("a", "b"))
+            .accept(new ClassProbesAdapter(lazy, false), 0);
+        String a = TestClasses.describe(lazy.getMethodResult("a", "(I)I"));
+        String b = TestClasses.describe(lazy.getMethodResult("b", "(I)I"));
+        Assert.assertEquals("5=(0,1,2,3);", a);
+        Assert.assertEquals("5=(5,6);", b);
+        // Merging the lines of the class does not change the lines of the methods.
+        Assert.assertEquals("5=(0,1,2,3,5,6);", TestClasses.describe(lazy.result()));
+        Assert.assertEquals(a, TestClasses.describe(lazy.getMethodResult("a", "(I)I")));
+        Assert.assertEquals(b, TestClasses.describe(lazy.getMethodResult("b", "(I)I")));
+    }
+
+    @Test
+    public void testLazySameAsEagerOnJars() throws Exception {
+        for (byte[] bytes : TestClasses.corpus()) {
+            ClassProbesMapper eager = new ClassProbesMapper(null, false);
+            new ClassReader(bytes).accept(new ClassProbesAdapter(eager, false), 0);
+            ClassProbesMapper lazy = new ClassProbesMapper(null, true);
+            new ClassReader(bytes).accept(new ClassProbesAdapter(lazy, false), 0);
+            Assert.assertEquals(TestClasses.describe(eager.result()),
+                TestClasses.describe(lazy.result()));
+        }
+    }
+
+    @Test
+    public void testTimed() throws Exception {
+        byte[] bytes = TestClasses.bytesOf(MyC.class);
+        ClassProbesMapper untimed = new ClassProbesMapper();
+        new ClassReader(bytes).accept(new ClassProbesAdapter(untimed, false), 0);
+        Assert.assertEquals(0, untimed.getResolveNanos());
+        Assert.assertEquals(0, untimed.getMergeNanos());
+
+        ClassProbesMapper timed = new ClassProbesMapper(null, false, true);
+        new ClassReader(bytes).accept(new ClassProbesAdapter(timed, false), 0);
+        Assert.assertTrue(timed.getResolveNanos() > 0);
+        Assert.assertEquals(TestClasses.describe(untimed.result()),
+            TestClasses.describe(timed.result()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEagerMethodResult() throws Exception {
+        mapMyC(false).getMethodResult("f", "(I)I");
+    }
 }
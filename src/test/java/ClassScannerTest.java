@@ -0,0 +1,123 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.jacoco.core.internal.data.CRC64;
+
+import me.zhihan.jacoco.internal.MyC;
+import me.zhihan.jacoco.internal.MyI;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClassScannerTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] myC;
+  private byte[] myI;
+
+  @Before
+  public void setup() throws Exception {
+    myC = TestClasses.bytesOf(MyC.class);
+    myI = TestClasses.bytesOf(MyI.class);
+  }
+
+  private Set<Long> scan(File... roots) throws IOException {
+    final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    new ClassScanner().scan(Arrays.asList(roots), new ClassScanner.ClassHandler() {
+      @Override
+      public void handle(byte[] buffer, int length) {
+        ids.add(ClassScanner.checksum(buffer, 0, length));
+      }
+    });
+    return ids;
+  }
+
+  @Test
+  public void testChecksum() {
+    byte[] padded = new byte[myC.length + 10];
+    System.arraycopy(myC, 0, padded, 5, myC.length);
+    assertThat(ClassScanner.checksum(padded, 5, myC.length)).isEqualTo(CRC64.checksum(myC));
+    assertThat(ClassScanner.checksum(myC, 0, myC.length)).isEqualTo(CRC64.checksum(myC));
+  }
+
+  @Test
+  public void testChecksumSameAsJacoco() {
+    // Random ranges within a larger buffer, then every byte value.
+    Random random = new Random(14);
+    byte[] buffer = new byte[4096];
+    random.nextBytes(buffer);
+    for (int i = 0; i < 1000; i++) {
+      int offset = random.nextInt(buffer.length);
+      int length = random.nextInt(buffer.length - offset + 1);
+      assertThat(ClassScanner.checksum(buffer, offset, length))
+          .isEqualTo(CRC64.checksum(Arrays.copyOfRange(buffer, offset, offset + length)));
+    }
+    byte[] all = new byte[256 * 8];
+    for (int i = 0; i < all.length; i++) {
+      all[i] = (byte) (i >>> 3);
+    }
+    assertThat(ClassScanner.checksum(all, 0, all.length)).isEqualTo(CRC64.checksum(all));
+  }
+
+  @Test
+  public void testDirectoryAndJar() throws Exception {
+    File dir = new File(folder.getRoot(), "classes/a/b");
+    dir.mkdirs();
+    Files.write(myC, new File(dir, "MyC.class"));
+    Files.write("not a class".getBytes("UTF-8"), new File(dir, "README"));
+
+    File jar = folder.newFile("classes.jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    out.putNextEntry(new ZipEntry("a/b/MyI.class"));
+    out.write(myI);
+    out.closeEntry();
+    out.close();
+
+    assertThat(scan(new File(folder.getRoot(), "classes"), jar))
+        .containsExactly(CRC64.checksum(myC), CRC64.checksum(myI));
+  }
+
+  @Test
+  public void testLargeClass() throws Exception {
+    // Larger than the initial buffer, with an unknown size in the jar.
+    byte[] large = new byte[100 * 1024];
+    new Random(1).nextBytes(large);
+    File jar = folder.newFile("large.jar");
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    out.putNextEntry(new ZipEntry("Large.class"));
+    out.write(large);
+    out.closeEntry();
+    out.close();
+
+    assertThat(scan(jar)).containsExactly(CRC64.checksum(large));
+  }
+
+  @Test(expected = IOException.class)
+  public void testHandlerError() throws Exception {
+    File dir = folder.newFolder("classes");
+    Files.write(myC, new File(dir, "MyC.class"));
+    new ClassScanner().scan(Arrays.asList(dir), new ClassScanner.ClassHandler() {
+      @Override
+      public void handle(byte[] buffer, int length) throws IOException {
+        throw new IOException("failed");
+      }
+    });
+  }
+}
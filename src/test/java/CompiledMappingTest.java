@@ -0,0 +1,131 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CompiledMappingTest {
+  private Map<Integer, BranchExp> createMapping() {
+    // Line 10: two branches, one of which is a nested branch expression.
+    BranchExp nested = new ProbeExp(1).branchExp();
+    nested.add(new ProbeExp(2));
+    BranchExp line10 = new ProbeExp(0).branchExp();
+    line10.add(nested);
+
+    // Line 5: branches with probes in different words.
+    BranchExp line5 = new ProbeExp(70).branchExp();
+    BranchExp wide = new ProbeExp(3).branchExp();
+    wide.add(new ProbeExp(130));
+    line5.add(wide);
+    line5.add(new ProbeExp(64));
+
+    Map<Integer, BranchExp> result = new HashMap<Integer, BranchExp>();
+    result.put(10, line10);
+    result.put(5, line5);
+    return result;
+  }
+
+  @Test
+  public void testLayout() {
+    CompiledMapping mapping = CompiledMapping.compile(createMapping());
+
+    assertThat(mapping.getLineCount()).isEqualTo(2);
+    assertThat(mapping.getLine(0)).isEqualTo(5);
+    assertThat(mapping.getLine(1)).isEqualTo(10);
+    assertThat(mapping.getBranchCount(0)).isEqualTo(3);
+    assertThat(mapping.getFirstBranch(1)).isEqualTo(3);
+    assertThat(mapping.getBranchCount(1)).isEqualTo(2);
+    assertThat(mapping.getTotalBranchCount()).isEqualTo(5);
+    assertThat(mapping.indexOfLine(10)).isEqualTo(1);
+    assertThat(mapping.indexOfLine(7)).isLessThan(0);
+  }
+
+  @Test
+  public void testPack() {
+    boolean[] probes = new boolean[65];
+    probes[0] = true;
+    probes[63] = true;
+    probes[64] = true;
+    long[] words = CompiledMapping.pack(probes);
+
+    assertThat(words.length).isEqualTo(2);
+    assertThat(words[0]).isEqualTo(0x8000000000000001L);
+    assertThat(words[1]).isEqualTo(1L);
+  }
+
+  @Test
+  public void testSameAsEval() {
+    Map<Integer, BranchExp> expected = createMapping();
+    CompiledMapping mapping = CompiledMapping.compile(expected);
+
+    int[][] cases = { {}, {0}, {2}, {70}, {130}, {3, 64}, {1, 64, 70} };
+    for (int[] set : cases) {
+      boolean[] probes = new boolean[131];
+      for (int id : set) {
+        probes[id] = true;
+      }
+      long[] words = CompiledMapping.pack(probes);
+      for (int i = 0; i < mapping.getLineCount(); i++) {
+        BranchExp line = createMapping().get(mapping.getLine(i));
+        for (int j = 0; j < mapping.getBranchCount(i); j++) {
+          assertThat(mapping.isCovered(mapping.getFirstBranch(i) + j, words))
+              .isEqualTo(line.getBranches().get(j).eval(probes));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testShortProbeArray() {
+    CompiledMapping mapping = CompiledMapping.compile(createMapping());
+    long[] words = CompiledMapping.pack(new boolean[] {true});
+
+    assertThat(mapping.isCovered(0, words)).isFalse();
+    assertThat(mapping.isCovered(3, words)).isTrue();
+  }
+
+  @Test
+  public void testEvaluateAll() {
+    CompiledMapping mapping = CompiledMapping.compile(createMapping());
+    int[][] cases = { {}, {0}, {2}, {70}, {130}, {3, 64}, {1, 64, 70} };
+    for (int[] set : cases) {
+      for (int length : new int[] {1, 65, 131}) {
+        boolean[] probes = new boolean[length];
+        for (int id : set) {
+          if (id < length) {
+            probes[id] = true;
+          }
+        }
+        long[] words = CompiledMapping.pack(probes);
+        long[] covered = new long[1];
+        mapping.evaluate(words, covered);
+        for (int b = 0; b < mapping.getTotalBranchCount(); b++) {
+          assertThat((covered[0] & (1L << b)) != 0).isEqualTo(mapping.isCovered(b, words));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testEvaluateManyBranches() {
+    // 100 branches on one line, branch b uses probe 2 * b, so the result spans two words.
+    BranchExp line = new ProbeExp(0).branchExp();
+    for (int b = 1; b < 100; b++) {
+      line.add(new ProbeExp(2 * b));
+    }
+    Map<Integer, BranchExp> lines = new HashMap<Integer, BranchExp>();
+    lines.put(1, line);
+    CompiledMapping mapping = CompiledMapping.compile(lines);
+
+    boolean[] probes = new boolean[200];
+    probes[2 * 3] = true;
+    probes[2 * 70] = true;
+    long[] covered = new long[2];
+    mapping.evaluate(CompiledMapping.pack(probes), covered);
+    assertThat(covered[0]).isEqualTo(1L << 3);
+    assertThat(covered[1]).isEqualTo(1L << (70 - 64));
+  }
+}
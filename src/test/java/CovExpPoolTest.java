@@ -0,0 +1,105 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.objectweb.asm.ClassReader;
+
+import me.zhihan.jacoco.internal.MyC;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class CovExpPoolTest {
+  private final CovExpPool pool = new CovExpPool();
+
+  private Map<Integer, BranchExp> map(CovExpPool pool) throws Exception {
+    byte[] bytes = TestClasses.bytesOf(MyC.class);
+    ClassProbesMapper mapper = new ClassProbesMapper(pool);
+    new ClassReader(bytes).accept(new ClassProbesAdapter(mapper, false), 0);
+    return mapper.result();
+  }
+
+  private Map<Integer, BranchExp> mapSharedLine(String... methods) {
+    ClassProbesMapper mapper = new ClassProbesMapper(pool);
+    new ClassReader(TestClasses.sharedLine(methods))
+        .accept(new ClassProbesAdapter(mapper, false), 0);
+    return mapper.result();
+  }
+
+  @Test
+  public void testProbe() {
+    assertThat(pool.probe(3)).isSameAs(pool.probe(3));
+    assertThat(pool.probe(3).getProbeId()).isEqualTo(3);
+    assertThat(pool.probe(1000)).isNotSameAs(pool.probe(999));
+  }
+
+  @Test
+  public void testBranch() {
+    BranchExp a = pool.branch(Arrays.<CovExp>asList(pool.probe(0), pool.probe(1)));
+    BranchExp b = pool.branch(Arrays.<CovExp>asList(pool.probe(0), pool.probe(1)));
+    BranchExp c = pool.branch(Arrays.<CovExp>asList(pool.probe(1), pool.probe(0)));
+
+    assertThat(a).isSameAs(b);
+    assertThat(a).isNotSameAs(c);
+    assertThat(pool.size()).isEqualTo(2);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testImmutable() {
+    BranchExp a = pool.branch(Arrays.<CovExp>asList(pool.probe(0)));
+    a.add(pool.probe(1));
+  }
+
+  @Test
+  public void testMergedLinesAreInterned() {
+    // Lines merged within a method, then across methods.
+    BranchExp method = mapSharedLine("a").get(5);
+    BranchExp first = mapSharedLine("a", "b").get(5);
+    int size = pool.size();
+    BranchExp second = mapSharedLine("a", "b").get(5);
+
+    assertThat(method.getBranches()).hasSize(4);
+    assertThat(mapSharedLine("a").get(5)).isSameAs(method);
+    assertThat(first.getBranches()).hasSize(6);
+    assertThat(second).isSameAs(first);
+    // The merged copies of the later mappings are not kept.
+    assertThat(pool.size()).isEqualTo(size);
+  }
+
+  @Test
+  public void testSameAsPlainOnJars() throws Exception {
+    for (byte[] bytes : TestClasses.corpus()) {
+      ClassProbesMapper plain = new ClassProbesMapper();
+      new ClassReader(bytes).accept(new ClassProbesAdapter(plain, false), 0);
+      ClassProbesMapper pooled = new ClassProbesMapper(pool);
+      new ClassReader(bytes).accept(new ClassProbesAdapter(pooled, false), 0);
+      assertThat(TestClasses.describe(pooled.result()))
+          .isEqualTo(TestClasses.describe(plain.result()));
+    }
+  }
+
+  @Test
+  public void testMapperSharesStructure() throws Exception {
+    Map<Integer, BranchExp> expected = map(null);
+    Map<Integer, BranchExp> first = map(pool);
+    Map<Integer, BranchExp> second = map(pool);
+
+    assertThat(first.keySet()).isEqualTo(expected.keySet());
+    for (Integer line : expected.keySet()) {
+      assertThat(second.get(line)).isSameAs(first.get(line));
+      assertThat(first.get(line).getBranches().size())
+          .isEqualTo(expected.get(line).getBranches().size());
+    }
+    boolean[] probes = new boolean[6];
+    for (int probe = 0; probe < probes.length; probe++) {
+      Arrays.fill(probes, false);
+      probes[probe] = true;
+      for (Integer line : expected.keySet()) {
+        assertThat(first.get(line).eval(probes)).isEqualTo(expected.get(line).eval(probes));
+      }
+    }
+  }
+}
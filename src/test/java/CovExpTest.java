@@ -65,4 +65,13 @@ public class CovExpTest {
     assertThat(c.eval(probes)).isEqualTo(false);
     assertThat(d.eval(probes)).isEqualTo(true);
   }
+
+  @Test
+  public void testEvaluateTwice() {
+    CovExp a = new ProbeExp(0);
+    BranchExp b = a.branchExp();
+
+    assertThat(b.eval(new boolean[] {true})).isEqualTo(true);
+    assertThat(b.eval(new boolean[] {false})).isEqualTo(false);
+  }
 }
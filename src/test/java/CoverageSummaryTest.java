@@ -0,0 +1,87 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import org.jacoco.core.internal.flow.ClassProbesAdapter;
+import org.objectweb.asm.ClassReader;
+
+import me.zhihan.jacoco.internal.MyC;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CoverageSummaryTest {
+  @Test
+  public void testMyC() throws Exception {
+    byte[] bytes = TestClasses.bytesOf(MyC.class);
+
+    CoverageSummary summary = CoverageSummary.analyze(new ClassReader(bytes),
+        new boolean[] {true, true, false, true, false, true});
+    assertThat(summary.getLineCount()).isEqualTo(2);
+    assertThat(summary.getLine(1)).isEqualTo(17);
+    assertThat(summary.indexOfLine(17)).isEqualTo(1);
+    assertThat(summary.getCoveredCount(0)).isEqualTo(1);
+    assertThat(summary.getMissedCount(0)).isEqualTo(1);
+    assertThat(summary.getCoveredCount()).isEqualTo(2);
+    assertThat(summary.getMissedCount()).isEqualTo(2);
+
+    assertThat(summary.getMethodCount()).isEqualTo(2);
+    assertThat(summary.getMethodName(1)).isEqualTo("f");
+    assertThat(summary.getMethodDesc(1)).isEqualTo("(I)I");
+    assertThat(summary.getMethodCoveredCount(0)).isEqualTo(0);
+    assertThat(summary.getMethodMissedCount(0)).isEqualTo(0);
+    assertThat(summary.getMethodCoveredCount(1)).isEqualTo(2);
+    assertThat(summary.getMethodMissedCount(1)).isEqualTo(2);
+  }
+
+  @Test
+  public void testSharedLine() {
+    ClassProbesMapper mapper = new ClassProbesMapper();
+    new ClassReader(TestClasses.sharedLine("b", "c"))
+        .accept(new ClassProbesAdapter(mapper, false), 0);
+    assertThat(mapper.getMethodRanges(0)).isEqualTo(new int[] {5, 0, 2});
+    assertThat(mapper.getMethodRanges(1)).isEqualTo(new int[] {5, 2, 2});
+
+    CompiledMapping mapping = CompiledMapping.compile(mapper.result());
+    boolean[] probes = new boolean[8];
+    Arrays.fill(probes, true);
+    CoverageSummary summary =
+        CoverageSummary.summarize(new BranchEvaluator(mapping).evaluate(probes), mapper);
+    assertThat(summary.getCoveredCount(0)).isEqualTo(4);
+    assertThat(summary.getMethodCoveredCount(0)).isEqualTo(2);
+    assertThat(summary.getMethodCoveredCount(1)).isEqualTo(2);
+
+    CoverageSummary lines = CoverageSummary.summarize(
+        new BranchEvaluator(mapping).evaluate(new boolean[8]));
+    assertThat(lines.getMethodCount()).isEqualTo(0);
+    assertThat(lines.getMissedCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void testCoveredCountRange() {
+    BranchExp line = new ProbeExp(0).branchExp();
+    for (int p = 1; p < 150; p++) {
+      line.add(new ProbeExp(p));
+    }
+    Map<Integer, BranchExp> lines = new HashMap<Integer, BranchExp>();
+    lines.put(1, line);
+    boolean[] probes = new boolean[150];
+    for (int p = 0; p < 150; p += 3) {
+      probes[p] = true;
+    }
+    BranchCoverage coverage =
+        new BranchEvaluator(CompiledMapping.compile(lines)).evaluate(probes);
+    for (int from = 0; from < 150; from += 7) {
+      for (int to = from; to <= 150; to += 11) {
+        int expected = 0;
+        for (int b = from; b < to; b++) {
+          expected += probes[b] ? 1 : 0;
+        }
+        assertThat(coverage.getCoveredCount(from, to)).isEqualTo(expected);
+      }
+    }
+  }
+}
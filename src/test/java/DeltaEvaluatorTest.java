@@ -0,0 +1,93 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class DeltaEvaluatorTest {
+  private CompiledMapping mapping;
+
+  @Before
+  public void setup() {
+    BranchExp line1 = new ProbeExp(0).branchExp();
+    BranchExp nested = new ProbeExp(1).branchExp();
+    nested.add(new ProbeExp(100));
+    line1.add(nested);
+    BranchExp line2 = new ProbeExp(64).branchExp();
+    line2.add(new ProbeExp(2));
+    line2.add(new ProbeExp(100));
+    Map<Integer, BranchExp> lines = new HashMap<Integer, BranchExp>();
+    lines.put(1, line1);
+    lines.put(2, line2);
+    mapping = CompiledMapping.compile(lines);
+  }
+
+  @Test
+  public void testIndex() {
+    ProbeIndex index = new ProbeIndex(mapping);
+    assertThat(index.getProbeCount()).isEqualTo(101);
+    assertThat(index.getEnd(100) - index.getStart(100)).isEqualTo(2);
+    assertThat(index.getBranch(index.getStart(100))).isEqualTo(1);
+    assertThat(index.getBranch(index.getStart(100) + 1)).isEqualTo(4);
+    assertThat(index.getLine(index.getStart(100))).isEqualTo(1);
+    assertThat(index.getLine(index.getStart(100) + 1)).isEqualTo(2);
+    assertThat(index.getLineIndex(index.getStart(64))).isEqualTo(1);
+    assertThat(index.getEnd(50) - index.getStart(50)).isEqualTo(0);
+  }
+
+  @Test
+  public void testSameAsFullEvaluation() {
+    // Probes are mostly set over time, and sometimes reset.
+    Random random = new Random(11);
+    DeltaEvaluator delta = new DeltaEvaluator(mapping);
+    BranchEvaluator full = new BranchEvaluator(mapping);
+    boolean[] probes = new boolean[101];
+    for (int round = 0; round < 200; round++) {
+      if (round % 50 == 49) {
+        probes = new boolean[101];
+      } else {
+        probes[random.nextInt(probes.length)] = true;
+      }
+      BranchCoverage expected = full.evaluate(probes);
+      BranchCoverage actual = delta.update(probes);
+      for (int b = 0; b < mapping.getTotalBranchCount(); b++) {
+        assertThat(actual.isCovered(b)).isEqualTo(expected.isCovered(b));
+      }
+    }
+  }
+
+  @Test
+  public void testChangedProbes() {
+    DeltaEvaluator delta = new DeltaEvaluator(mapping);
+    boolean[] probes = new boolean[101];
+    probes[100] = true;
+    BranchCoverage first = delta.update(probes);
+    assertThat(delta.getChangedProbeCount()).isEqualTo(1);
+    assertThat(first.getCoveredCount()).isEqualTo(2);
+
+    assertThat(delta.update(probes)).isSameAs(first);
+    assertThat(delta.getChangedProbeCount()).isEqualTo(0);
+    // Probe 50 is not used by any branch.
+    probes[50] = true;
+    assertThat(delta.update(CompiledMapping.pack(probes))).isSameAs(first);
+    assertThat(delta.getChangedProbeCount()).isEqualTo(1);
+    // Earlier results are not changed by later updates.
+    BranchCoverage reset = delta.update(new boolean[101]);
+    assertThat(reset).isNotSameAs(first);
+    assertThat(reset.getCoveredCount()).isEqualTo(0);
+    assertThat(first.getCoveredCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testNoData() {
+    DeltaEvaluator delta = new DeltaEvaluator(mapping);
+    BranchCoverage coverage = delta.update(new long[0]);
+    assertThat(coverage.getCoveredCount()).isEqualTo(0);
+    assertThat(delta.update(new boolean[101])).isSameAs(coverage);
+  }
+}
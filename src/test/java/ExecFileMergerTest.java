@@ -0,0 +1,75 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.data.SessionInfoStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ExecFileMergerTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File write(String session, ExecutionData... data) throws IOException {
+    File file = folder.newFile(session + ".exec");
+    OutputStream out = new FileOutputStream(file);
+    try {
+      ExecutionDataWriter writer = new ExecutionDataWriter(out);
+      writer.visitSessionInfo(new SessionInfo(session, 1L, 2L));
+      for (ExecutionData d : data) {
+        writer.visitClassExecution(d);
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    // Class 1 is in every file with a different probe set, class 2 only in the last.
+    List<File> files = new ArrayList<File>();
+    for (int i = 0; i < 20; i++) {
+      boolean[] probes = new boolean[20];
+      probes[i] = true;
+      files.add(write("s" + i, new ExecutionData(1L, "a/A", probes)));
+    }
+    files.add(write("last", new ExecutionData(2L, "a/B", new boolean[] {false, true})));
+
+    SessionInfoStore sessions = new SessionInfoStore();
+    ExecutionDataStore store = new ExecFileMerger().merge(files, sessions);
+
+    assertThat(store.getContents()).hasSize(2);
+    boolean[] expected = new boolean[20];
+    Arrays.fill(expected, true);
+    assertThat(store.get(1L).getProbes()).isEqualTo(expected);
+    assertThat(store.get(2L).getProbes()).isEqualTo(new boolean[] {false, true});
+    assertThat(sessions.getInfos()).hasSize(21);
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingFile() throws Exception {
+    new ExecFileMerger().merge(Arrays.asList(new File(folder.getRoot(), "missing.exec")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testIncompatible() throws Exception {
+    File first = write("first", new ExecutionData(1L, "a/A", new boolean[2]));
+    File second = write("second", new ExecutionData(1L, "a/A", new boolean[3]));
+    new ExecFileMerger().merge(Arrays.asList(first, second));
+  }
+}
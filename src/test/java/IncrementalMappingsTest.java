@@ -0,0 +1,99 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.jacoco.core.internal.data.CRC64;
+import org.objectweb.asm.ClassReader;
+
+import me.zhihan.jacoco.internal.MyC;
+import me.zhihan.jacoco.internal.MyI;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class IncrementalMappingsTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] myC;
+  private byte[] myI;
+
+  @Before
+  public void setup() throws Exception {
+    myC = TestClasses.bytesOf(MyC.class);
+    myI = TestClasses.bytesOf(MyI.class);
+  }
+
+  private BranchMapping get(IncrementalMappings mappings, byte[] bytes) {
+    return mappings.get(CRC64.checksum(bytes), new ClassReader(bytes));
+  }
+
+  @Test
+  public void testFirstRun() throws Exception {
+    IncrementalMappings mappings = new IncrementalMappings(folder.getRoot());
+    assertThat(get(mappings, myC)).isInstanceOf(CompiledMapping.class);
+    get(mappings, myI);
+
+    assertThat(mappings.getChangedClasses()).containsExactly(
+        "me/zhihan/jacoco/internal/MyC", "me/zhihan/jacoco/internal/MyI");
+    assertThat(mappings.getRemovedClasses()).isEmpty();
+  }
+
+  @Test
+  public void testReuse() throws Exception {
+    File dir = new File(folder.getRoot(), "state");
+    IncrementalMappings first = new IncrementalMappings(dir);
+    get(first, myC);
+    get(first, myI);
+    first.save();
+
+    IncrementalMappings second = new IncrementalMappings(dir);
+    BranchMapping mapping = get(second, myC);
+    assertThat(mapping).isInstanceOf(MappedBranchMapping.class);
+    assertThat(mapping.getLineCount()).isEqualTo(2);
+    assertThat(mapping.getLine(0)).isEqualTo(11);
+    assertThat(second.getChangedClasses()).isEmpty();
+    assertThat(second.getRemovedClasses()).containsExactly("me/zhihan/jacoco/internal/MyI");
+
+    // Mappings served from the previous state are saved again.
+    second.save();
+    IncrementalMappings third = new IncrementalMappings(dir);
+    assertThat(get(third, myC).getLineCount()).isEqualTo(2);
+    assertThat(third.getChangedClasses()).isEmpty();
+  }
+
+  @Test
+  public void testInterruptedSave() throws Exception {
+    File dir = new File(folder.getRoot(), "state");
+    IncrementalMappings first = new IncrementalMappings(dir);
+    get(first, myC);
+    first.save();
+
+    // A save interrupted before CURRENT was replaced leaves a partial generation.
+    File partial = new File(dir, "state-partial");
+    assertThat(partial.mkdir()).isTrue();
+    Files.write(new File(partial, "mappings.bin").toPath(), new byte[] {1, 2, 3});
+
+    IncrementalMappings second = new IncrementalMappings(dir);
+    assertThat(get(second, myC)).isInstanceOf(MappedBranchMapping.class);
+    get(second, myI);
+    second.save();
+    assertThat(partial.exists()).isFalse();
+
+    IncrementalMappings third = new IncrementalMappings(dir);
+    assertThat(get(third, myI)).isInstanceOf(MappedBranchMapping.class);
+    assertThat(third.getRemovedClasses()).containsExactly("me/zhihan/jacoco/internal/MyC");
+    int generations = 0;
+    for (File file : dir.listFiles()) {
+      if (file.getName().startsWith("state-")) {
+        generations++;
+      }
+    }
+    assertThat(generations).isEqualTo(1);
+  }
+}
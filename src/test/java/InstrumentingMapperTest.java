@@ -0,0 +1,109 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.jacoco.core.instr.Instrumenter;
+import org.jacoco.core.runtime.OfflineInstrumentationAccessGenerator;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import me.zhihan.jacoco.internal.MyC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class InstrumentingMapperTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] serialize(CompiledMapping mapping) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    mapping.write(new DataOutputStream(out));
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testSameAsSeparatePasses() throws IOException {
+    OfflineInstrumentationAccessGenerator runtime = new OfflineInstrumentationAccessGenerator();
+    InstrumentingMapper instrumentingMapper = new InstrumentingMapper(runtime);
+    Instrumenter instrumenter = new Instrumenter(runtime);
+    String[] resources = {
+        "/me/zhihan/jacoco/internal/MyC.class",
+        "/org/jacoco/extra/internal/MethodProbesMapper.class",
+        "/org/jacoco/extra/internal/CompiledMapping.class",
+        "/org/jacoco/extra/internal/ClassScanner.class",
+        "/org/jacoco/extra/internal/BranchMapping.class"};
+    for (String resource : resources) {
+      byte[] bytes = TestClasses.bytesOf(resource);
+      InstrumentingMapper.Instrumented result = instrumentingMapper.instrument(bytes);
+      assertThat(result.getBytes()).isEqualTo(instrumenter.instrument(bytes, resource));
+      assertThat(serialize(result.getMapping()))
+          .isEqualTo(serialize(BatchAnalyzer.map(new ClassReader(bytes))));
+    }
+  }
+
+  @Test
+  public void testCachedMapping() throws IOException {
+    MappingCache cache = new MappingCache(folder.getRoot());
+    InstrumentingMapper instrumentingMapper =
+        new InstrumentingMapper(new OfflineInstrumentationAccessGenerator(), cache);
+    InstrumentingMapper.Instrumented result =
+        instrumentingMapper.instrument(TestClasses.bytesOf(MyC.class));
+    assertThat(serialize(cache.get(result.getClassId())))
+        .isEqualTo(serialize(result.getMapping()));
+  }
+
+  // A class with dead code after a return, which starts with a label before a NEW. The label
+  // is only used by the local variable table, so it has no line number nor frame.
+  private static byte[] deadNew() {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, "Dead", null, "java/lang/Object", null);
+    MethodVisitor mv = writer.visitMethod(Opcodes.ACC_STATIC, "a", "(I)Ljava/lang/Object;",
+        null, null);
+    mv.visitCode();
+    Label start = new Label();
+    mv.visitLabel(start);
+    mv.visitLineNumber(5, start);
+    Label skip = new Label();
+    mv.visitVarInsn(Opcodes.ILOAD, 0);
+    mv.visitJumpInsn(Opcodes.IFLE, skip);
+    mv.visitTypeInsn(Opcodes.NEW, "java/lang/Object");
+    mv.visitInsn(Opcodes.DUP);
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    mv.visitInsn(Opcodes.ARETURN);
+    mv.visitLabel(skip);
+    mv.visitInsn(Opcodes.ACONST_NULL);
+    mv.visitInsn(Opcodes.ARETURN);
+    Label dead = new Label();
+    mv.visitLabel(dead);
+    mv.visitTypeInsn(Opcodes.NEW, "java/lang/Object");
+    mv.visitInsn(Opcodes.DUP);
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    mv.visitInsn(Opcodes.ARETURN);
+    Label end = new Label();
+    mv.visitLabel(end);
+    mv.visitLocalVariable("i", "I", null, dead, end, 0);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  @Test
+  public void testDeadCodeLabel() throws IOException {
+    OfflineInstrumentationAccessGenerator runtime = new OfflineInstrumentationAccessGenerator();
+    byte[] bytes = deadNew();
+    InstrumentingMapper.Instrumented result = new InstrumentingMapper(runtime).instrument(bytes);
+    assertThat(result.getBytes()).isEqualTo(new Instrumenter(runtime).instrument(bytes, "Dead"));
+    assertThat(serialize(result.getMapping()))
+        .isEqualTo(serialize(BatchAnalyzer.map(new ClassReader(bytes))));
+  }
+}
@@ -0,0 +1,149 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.jacoco.core.internal.data.CRC64;
+import org.objectweb.asm.ClassReader;
+
+import me.zhihan.jacoco.internal.MyC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class MappingCacheTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] bytes;
+  private long classId;
+  private MappingCache cache;
+
+  @Before
+  public void setup() throws Exception {
+    bytes = TestClasses.bytesOf(MyC.class);
+    classId = CRC64.checksum(bytes);
+    cache = new MappingCache(folder.getRoot());
+  }
+
+  @Test
+  public void testMiss() throws Exception {
+    assertThat(cache.get(classId)).isNull();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    CompiledMapping expected = BatchAnalyzer.map(new ClassReader(bytes));
+    cache.put(classId, expected);
+    TestClasses.assertSameMapping(cache.get(classId), expected, 6);
+  }
+
+  @Test
+  public void testMapOnMiss() throws Exception {
+    CompiledMapping mapped = cache.get(classId, new ClassReader(bytes));
+    assertThat(mapped.getLineCount()).isEqualTo(2);
+    TestClasses.assertSameMapping(cache.get(classId), mapped, 6);
+  }
+
+  // Replace the cache file of the class with the given bytes.
+  private void overwrite(byte[] content) throws Exception {
+    String name = String.format("%016x", classId);
+    File file = new File(new File(folder.getRoot(), name.substring(0, 2)), name + ".map");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write(content);
+    out.close();
+  }
+
+  @Test(expected = java.io.IOException.class)
+  public void testCorruptFile() throws Exception {
+    cache.put(classId, BatchAnalyzer.map(new ClassReader(bytes)));
+    overwrite(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    cache.get(classId);
+  }
+
+  @Test
+  public void testCorruptFileIsRemapped() throws Exception {
+    CompiledMapping expected = BatchAnalyzer.map(new ClassReader(bytes));
+    cache.put(classId, expected);
+    overwrite(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    TestClasses.assertSameMapping(cache.get(classId, new ClassReader(bytes)), expected, 6);
+    // The entry was written again.
+    TestClasses.assertSameMapping(cache.get(classId), expected, 6);
+  }
+
+  @Test
+  public void testTruncatedFileIsRemapped() throws Exception {
+    CompiledMapping expected = BatchAnalyzer.map(new ClassReader(bytes));
+    cache.put(classId, expected);
+    // A valid header followed by a partial mapping.
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(content);
+    out.writeInt(0x4A434D43);
+    out.writeInt(1);
+    out.writeLong(classId);
+    out.writeInt(expected.getLineCount());
+    overwrite(content.toByteArray());
+    TestClasses.assertSameMapping(cache.get(classId, new ClassReader(bytes)), expected, 6);
+    TestClasses.assertSameMapping(cache.get(classId), expected, 6);
+  }
+
+  // The header of a cache file followed by the given mapping bytes.
+  private byte[] entry(byte[] mapping) throws Exception {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(content);
+    out.writeInt(0x4A434D43);
+    out.writeInt(1);
+    out.writeLong(classId);
+    out.write(mapping);
+    return content.toByteArray();
+  }
+
+  @Test
+  public void testCorruptHeaderIsRemapped() throws Exception {
+    CompiledMapping expected = BatchAnalyzer.map(new ClassReader(bytes));
+    cache.put(classId, expected);
+    // Counts far larger than the file, which must not be allocated.
+    ByteArrayOutputStream mapping = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(mapping);
+    out.writeInt(Integer.MAX_VALUE - 1);
+    out.writeInt(Integer.MAX_VALUE - 1);
+    out.writeInt(Integer.MAX_VALUE);
+    overwrite(entry(mapping.toByteArray()));
+    try {
+      cache.get(classId);
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Invalid compiled mapping header");
+    }
+    TestClasses.assertSameMapping(cache.get(classId, new ClassReader(bytes)), expected, 6);
+    TestClasses.assertSameMapping(cache.get(classId), expected, 6);
+  }
+
+  @Test
+  public void testCorruptOffsetsAreRemapped() throws Exception {
+    CompiledMapping expected = BatchAnalyzer.map(new ClassReader(bytes));
+    cache.put(classId, expected);
+    ByteArrayOutputStream mapping = new ByteArrayOutputStream();
+    expected.write(new DataOutputStream(mapping));
+    byte[] corrupt = mapping.toByteArray();
+    // The second line offset, after the counts, the lines and the first line offset.
+    int offset = 12 + 4 * expected.getLineCount() + 4;
+    corrupt[offset] = (byte) 0x7f;
+    overwrite(entry(corrupt));
+    try {
+      cache.get(classId);
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Invalid compiled mapping offsets");
+    }
+    TestClasses.assertSameMapping(cache.get(classId, new ClassReader(bytes)), expected, 6);
+  }
+}
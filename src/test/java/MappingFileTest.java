@@ -0,0 +1,84 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MappingFileTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CompiledMapping first;
+  private CompiledMapping second;
+
+  @Before
+  public void setup() {
+    BranchExp line3 = new ProbeExp(0).branchExp();
+    line3.add(new ProbeExp(1));
+    BranchExp line8 = new ProbeExp(2).branchExp();
+    BranchExp nested = new ProbeExp(3).branchExp();
+    nested.add(new ProbeExp(200));
+    line8.add(nested);
+    line8.add(new ProbeExp(65));
+    Map<Integer, BranchExp> lines = new HashMap<Integer, BranchExp>();
+    lines.put(3, line3);
+    lines.put(8, line8);
+    first = CompiledMapping.compile(lines);
+
+    BranchExp line1 = new ProbeExp(4).branchExp();
+    line1.add(new ProbeExp(5));
+    lines = new HashMap<Integer, BranchExp>();
+    lines.put(1, line1);
+    second = CompiledMapping.compile(lines);
+  }
+
+  @Test
+  public void testWriteAndOpen() throws Exception {
+    Map<Long, CompiledMapping> mappings = new HashMap<Long, CompiledMapping>();
+    mappings.put(42L, first);
+    mappings.put(-7L, second);
+    File file = folder.newFile("mappings.bin");
+    MappingFile.write(file, mappings);
+
+    MappingFile mapped = MappingFile.open(file);
+    assertThat(mapped.size()).isEqualTo(2);
+    assertThat(mapped.getClassId(0)).isEqualTo(-7L);
+    TestClasses.assertSameMapping(mapped.get(42L), first, 201);
+    TestClasses.assertSameMapping(mapped.get(-7L), second, 201);
+    assertThat(mapped.get(43L)).isNull();
+  }
+
+  @Test
+  public void testEvaluateMapped() throws Exception {
+    Map<Long, CompiledMapping> mappings = new HashMap<Long, CompiledMapping>();
+    mappings.put(1L, first);
+    File file = folder.newFile("mappings.bin");
+    MappingFile.write(file, mappings);
+
+    BranchEvaluator evaluator = new BranchEvaluator(MappingFile.open(file).get(1L));
+    boolean[] probes = new boolean[201];
+    probes[200] = true;
+    BranchCoverage coverage = evaluator.evaluate(probes);
+    assertThat(coverage.getCoveredCount(0)).isEqualTo(0);
+    assertThat(coverage.isCovered(1, 1)).isTrue();
+    assertThat(coverage.getCoveredCount()).isEqualTo(1);
+
+    BranchCoverage packed = evaluator.evaluate(ProbeBits.direct(probes));
+    assertThat(packed.isCovered(1, 1)).isTrue();
+    assertThat(packed.getCoveredCount()).isEqualTo(1);
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidFile() throws Exception {
+    MappingFile.wrap(ByteBuffer.wrap(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11}));
+  }
+}
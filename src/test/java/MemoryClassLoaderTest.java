@@ -0,0 +1,62 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class MemoryClassLoaderTest {
+  @Test
+  public void testDefinedOnce() throws Exception {
+    MemoryClassLoader loader = new MemoryClassLoader(getClass().getClassLoader());
+    loader.addDefinition(ProbeBits.class.getName(), TestClasses.bytesOf(ProbeBits.class));
+    assertThat(loader.isDefined(ProbeBits.class.getName())).isTrue();
+
+    Class<?> c = loader.loadClass(ProbeBits.class.getName());
+    assertThat(c).isNotSameAs(ProbeBits.class);
+    assertThat(c.getClassLoader()).isSameAs(loader);
+    assertThat(loader.loadClass(ProbeBits.class.getName())).isSameAs(c);
+    // Other classes come from the parent.
+    assertThat(loader.loadClass(BranchMapping.class.getName())).isSameAs(BranchMapping.class);
+  }
+
+  @Test
+  public void testConcurrentLoads() throws Exception {
+    final MemoryClassLoader loader = new MemoryClassLoader(getClass().getClassLoader());
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    for (Class<?> c : new Class<?>[] {ProbeBits.class, ProbeIndex.class, CovExpPool.class}) {
+      classes.put(c.getName(), TestClasses.bytesOf(c));
+    }
+    loader.addDefinitions(classes);
+
+    final List<String> names = new ArrayList<String>(classes.keySet());
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Class<?>>> results = new ArrayList<Future<Class<?>>>();
+      for (int i = 0; i < 64; i++) {
+        final String name = names.get(i % names.size());
+        results.add(executor.submit(new Callable<Class<?>>() {
+          @Override
+          public Class<?> call() throws ClassNotFoundException {
+            return loader.loadClass(name);
+          }
+        }));
+      }
+      for (Future<Class<?>> result : results) {
+        Class<?> c = result.get();
+        assertThat(c.getClassLoader()).isSameAs(loader);
+        assertThat(loader.loadClass(c.getName())).isSameAs(c);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
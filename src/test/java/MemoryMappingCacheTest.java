@@ -0,0 +1,86 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.jacoco.core.internal.data.CRC64;
+import org.objectweb.asm.ClassReader;
+
+import me.zhihan.jacoco.internal.MyC;
+import me.zhihan.jacoco.internal.MyI;
+
+import java.io.IOException;
+
+public class MemoryMappingCacheTest {
+  private byte[] myC;
+  private byte[] myI;
+
+  @Before
+  public void setup() throws Exception {
+    myC = TestClasses.bytesOf(MyC.class);
+    myI = TestClasses.bytesOf(MyI.class);
+  }
+
+  private BranchMapping get(MemoryMappingCache cache, byte[] bytes) throws IOException {
+    return cache.get(CRC64.checksum(bytes), new ClassReader(bytes));
+  }
+
+  @Test
+  public void testWeight() {
+    // MyC has 2 lines with 2 branches each, and every branch has one mask word.
+    CompiledMapping mapping = BatchAnalyzer.map(new ClassReader(myC));
+    assertThat(MemoryMappingCache.weight(mapping)).isEqualTo(2 + 4 + 4);
+  }
+
+  @Test
+  public void testHitAndMiss() throws Exception {
+    MemoryMappingCache cache = new MemoryMappingCache(1000);
+    BranchMapping first = get(cache, myC);
+    assertThat(get(cache, myC)).isSameAs(first);
+    assertThat(cache.get(CRC64.checksum(myC))).isSameAs(first);
+    assertThat(cache.get(CRC64.checksum(myI))).isNull();
+
+    assertThat(cache.stats().hitCount()).isEqualTo(2);
+    assertThat(cache.stats().missCount()).isEqualTo(2);
+    assertThat(cache.stats().loadCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    // Room for the mapping of MyC, but not for a class with more branches.
+    MemoryMappingCache cache = new MemoryMappingCache(10);
+    get(cache, myC);
+    assertThat(cache.size()).isEqualTo(1);
+
+    byte[] large = TestClasses.bytesOf(CompiledMapping.class);
+    get(cache, large);
+
+    assertThat(cache.stats().evictionCount()).isAtLeast(1L);
+    assertThat(cache.get(CRC64.checksum(myC))).isNull();
+  }
+
+  @Test
+  public void testSoftFallback() throws Exception {
+    MemoryMappingCache cache = new MemoryMappingCache(0, true, null);
+    BranchMapping first = get(cache, myC);
+    assertThat(cache.size()).isEqualTo(0);
+
+    // Evicted at once, but still reachable through the soft reference.
+    assertThat(get(cache, myC)).isSameAs(first);
+    assertThat(cache.getSoftHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testDelegate() throws Exception {
+    final CompiledMapping mapped = BatchAnalyzer.map(new ClassReader(myC));
+    MemoryMappingCache cache = new MemoryMappingCache(1000, false, new MappingProvider() {
+      @Override
+      public BranchMapping get(long classId, ClassReader reader) {
+        return mapped;
+      }
+    });
+    assertThat(get(cache, myC)).isSameAs(mapped);
+  }
+}
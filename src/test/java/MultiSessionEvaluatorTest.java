@@ -0,0 +1,77 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class MultiSessionEvaluatorTest {
+  private CompiledMapping mapping;
+
+  @Before
+  public void setup() {
+    BranchExp line1 = new ProbeExp(0).branchExp();
+    BranchExp nested = new ProbeExp(1).branchExp();
+    nested.add(new ProbeExp(100));
+    line1.add(nested);
+    BranchExp line2 = new ProbeExp(64).branchExp();
+    line2.add(new ProbeExp(2));
+    Map<Integer, BranchExp> lines = new HashMap<Integer, BranchExp>();
+    lines.put(1, line1);
+    lines.put(2, line2);
+    mapping = CompiledMapping.compile(lines);
+  }
+
+  @Test
+  public void testSameAsSingleSession() {
+    Random random = new Random(7);
+    List<boolean[]> sessions = new ArrayList<boolean[]>();
+    for (int s = 0; s < 130; s++) {
+      // Some sessions have shorter probe arrays.
+      boolean[] probes = new boolean[s % 3 == 0 ? 50 : 101];
+      for (int p = 0; p < probes.length; p++) {
+        probes[p] = random.nextInt(8) == 0;
+      }
+      sessions.add(probes);
+    }
+
+    List<ProbeBits> packed = new ArrayList<ProbeBits>();
+    for (boolean[] probes : sessions) {
+      packed.add(ProbeBits.direct(probes));
+    }
+
+    SessionCoverage matrix = new MultiSessionEvaluator(mapping).evaluate(sessions);
+    SessionCoverage packedMatrix = new MultiSessionEvaluator(mapping).evaluatePacked(packed);
+    BranchEvaluator single = new BranchEvaluator(mapping);
+    assertThat(matrix.getSessionCount()).isEqualTo(130);
+    for (int s = 0; s < sessions.size(); s++) {
+      BranchCoverage expected = single.evaluate(sessions.get(s));
+      BranchCoverage actual = matrix.getCoverage(s);
+      for (int b = 0; b < mapping.getTotalBranchCount(); b++) {
+        assertThat(matrix.isCovered(s, b)).isEqualTo(expected.isCovered(b));
+        assertThat(actual.isCovered(b)).isEqualTo(expected.isCovered(b));
+        assertThat(packedMatrix.isCovered(s, b)).isEqualTo(expected.isCovered(b));
+      }
+    }
+  }
+
+  @Test
+  public void testSessions() {
+    List<boolean[]> sessions = new ArrayList<boolean[]>();
+    sessions.add(new boolean[] {true, false, false});
+    sessions.add(new boolean[] {false, true, true});
+    sessions.add(new boolean[] {true, true, false});
+
+    SessionCoverage matrix = new MultiSessionEvaluator(mapping).evaluate(sessions);
+    assertThat(matrix.getSessionCount(0)).isEqualTo(2);
+    assertThat(matrix.getSessions(1).toString()).isEqualTo("{1, 2}");
+    assertThat(matrix.getSessions(2).isEmpty()).isTrue();
+    assertThat(matrix.getSessions(3).toString()).isEqualTo("{1}");
+  }
+}
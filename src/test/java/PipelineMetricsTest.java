@@ -0,0 +1,100 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.data.CRC64;
+
+import me.zhihan.jacoco.internal.MyC;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class PipelineMetricsTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testBucket() {
+    assertThat(PipelineMetrics.bucket(0)).isEqualTo(0);
+    assertThat(PipelineMetrics.bucket(1)).isEqualTo(1);
+    assertThat(PipelineMetrics.bucket(1023)).isEqualTo(10);
+    assertThat(PipelineMetrics.bucket(1024)).isEqualTo(11);
+  }
+
+  @Test
+  public void testRecord() {
+    PipelineMetrics metrics = new PipelineMetrics();
+    metrics.record(PipelineMetrics.Stage.VISIT, "a/A", 1000, 100);
+    metrics.record(PipelineMetrics.Stage.VISIT, "a/B", 3000, 5000);
+
+    assertThat(metrics.getCount(PipelineMetrics.Stage.VISIT)).isEqualTo(2);
+    assertThat(metrics.getTotalNanos(PipelineMetrics.Stage.VISIT)).isEqualTo(5100);
+    assertThat(metrics.getLatencyCount(PipelineMetrics.Stage.VISIT, 7)).isEqualTo(1);
+    assertThat(metrics.getSizeNanos(PipelineMetrics.Stage.VISIT, 12)).isEqualTo(5000);
+    assertThat(metrics.getSlowestClass(PipelineMetrics.Stage.VISIT)).isEqualTo("a/B");
+    assertThat(metrics.getCount(PipelineMetrics.Stage.MERGE)).isEqualTo(0);
+  }
+
+  @Test
+  public void testJson() {
+    PipelineMetrics metrics = new PipelineMetrics();
+    metrics.record(PipelineMetrics.Stage.EVALUATE, "a/A", 1000, 100);
+
+    assertThat(metrics.toJson()).startsWith(
+        "{\"visit\":{\"count\":0,\"nanos\":0,\"latency\":{},\"size\":{}},");
+    assertThat(metrics.toJson()).endsWith(
+        "\"evaluate\":{\"count\":1,\"nanos\":100,\"latency\":{\"127\":1},"
+        + "\"size\":{\"1023\":{\"count\":1,\"nanos\":100}},"
+        + "\"slowest\":{\"class\":\"a/A\",\"nanos\":100}}}");
+  }
+
+  @Test
+  public void testBatchAnalyzer() throws Exception {
+    byte[] bytes = TestClasses.bytesOf(MyC.class);
+    ExecutionDataStore store = new ExecutionDataStore();
+    store.put(new ExecutionData(CRC64.checksum(bytes), "me/zhihan/jacoco/internal/MyC",
+        new boolean[6]));
+
+    PipelineMetrics metrics = new PipelineMetrics();
+    BatchAnalyzer analyzer = new BatchAnalyzer(store);
+    analyzer.setMetrics(metrics);
+    analyzer.analyzeClasses(Arrays.asList(bytes));
+
+    for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+      int expected = stage == PipelineMetrics.Stage.PROVIDE ? 0 : 1;
+      assertThat(metrics.getCount(stage)).isEqualTo(expected);
+      assertThat(metrics.getSizeCount(stage, PipelineMetrics.bucket(bytes.length)))
+          .isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testBatchAnalyzerWithProvider() throws Exception {
+    byte[] bytes = TestClasses.bytesOf(MyC.class);
+    ExecutionDataStore store = new ExecutionDataStore();
+    store.put(new ExecutionData(CRC64.checksum(bytes), "me/zhihan/jacoco/internal/MyC",
+        new boolean[6]));
+
+    PipelineMetrics metrics = new PipelineMetrics();
+    MappingCache cache = new MappingCache(folder.getRoot());
+    BatchAnalyzer analyzer = new BatchAnalyzer(store, ForkJoinPool.commonPool(), cache);
+    analyzer.setMetrics(metrics);
+    // A miss, then a hit.
+    analyzer.analyzeClasses(Arrays.asList(bytes));
+    analyzer.analyzeClasses(Arrays.asList(bytes));
+
+    assertThat(metrics.getCount(PipelineMetrics.Stage.PROVIDE)).isEqualTo(2);
+    assertThat(metrics.getSizeCount(PipelineMetrics.Stage.PROVIDE,
+        PipelineMetrics.bucket(bytes.length))).isEqualTo(2);
+    assertThat(metrics.getSlowestClass(PipelineMetrics.Stage.PROVIDE))
+        .isEqualTo("me/zhihan/jacoco/internal/MyC");
+    assertThat(metrics.getCount(PipelineMetrics.Stage.EVALUATE)).isEqualTo(2);
+    assertThat(metrics.getCount(PipelineMetrics.Stage.VISIT)).isEqualTo(0);
+  }
+}
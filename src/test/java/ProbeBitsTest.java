@@ -0,0 +1,72 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.nio.LongBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ProbeBitsTest {
+  private static boolean[] randomProbes(int count) {
+    Random random = new Random(3);
+    boolean[] probes = new boolean[count];
+    for (int p = 0; p < count; p++) {
+      probes[p] = random.nextBoolean();
+    }
+    return probes;
+  }
+
+  @Test
+  public void testPack() {
+    boolean[] probes = randomProbes(130);
+    ProbeBits heap = ProbeBits.of(probes);
+    ProbeBits direct = ProbeBits.direct(probes);
+
+    assertThat(heap.isDirect()).isFalse();
+    assertThat(direct.isDirect()).isTrue();
+    assertThat(direct.getWordCount()).isEqualTo(3);
+    for (int w = 0; w < 3; w++) {
+      assertThat(direct.getWord(w)).isEqualTo(heap.getWord(w));
+    }
+    for (int p = 0; p < probes.length; p++) {
+      assertThat(heap.get(p)).isEqualTo(probes[p]);
+      assertThat(direct.get(p)).isEqualTo(probes[p]);
+    }
+    assertThat(direct.get(200)).isFalse();
+  }
+
+  @Test
+  public void testWrap() {
+    LongBuffer buffer = LongBuffer.wrap(new long[] {-1L, 5L});
+    buffer.position(1);
+    ProbeBits bits = ProbeBits.wrap(buffer);
+
+    assertThat(bits.getWordCount()).isEqualTo(1);
+    assertThat(bits.get(0)).isTrue();
+    assertThat(bits.get(1)).isFalse();
+    assertThat(bits.get(2)).isTrue();
+  }
+
+  @Test
+  public void testEvaluate() {
+    BranchExp line1 = new ProbeExp(0).branchExp();
+    BranchExp nested = new ProbeExp(65).branchExp();
+    nested.add(new ProbeExp(129));
+    line1.add(nested);
+    Map<Integer, BranchExp> lines = new HashMap<Integer, BranchExp>();
+    lines.put(1, line1);
+    CompiledMapping mapping = CompiledMapping.compile(lines);
+
+    boolean[] probes = randomProbes(130);
+    BranchCoverage expected = new BranchEvaluator(mapping).evaluate(probes);
+    BranchCoverage actual = new BranchEvaluator(mapping).evaluate(ProbeBits.direct(probes));
+    for (int b = 0; b < mapping.getTotalBranchCount(); b++) {
+      assertThat(actual.isCovered(b)).isEqualTo(expected.isCovered(b));
+      assertThat(mapping.isCovered(b, ProbeBits.of(probes))).isEqualTo(expected.isCovered(b));
+    }
+    assertThat(line1.eval(ProbeBits.of(probes))).isEqualTo(line1.eval(probes));
+  }
+}
@@ -0,0 +1,171 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.jacoco.core.data.ExecutionData;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.google.common.base.Ascii;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/** The class files used by the tests, and the assertions on their mappings. */
+final class TestClasses {
+  private TestClasses() {}
+
+  /** The bytes of a class file resource, such as "/me/zhihan/jacoco/internal/MyC.class". */
+  static byte[] bytesOf(String resource) throws IOException {
+    InputStream in = TestClasses.class.getResourceAsStream(resource);
+    if (in == null) {
+      throw new FileNotFoundException(resource);
+    }
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** The bytes of the class file of a class of the classpath. */
+  static byte[] bytesOf(Class<?> c) throws IOException {
+    return bytesOf("/" + c.getName().replace('.', '/') + ".class");
+  }
+
+  /**
+   * A class "Shared" with the given static (I)I methods, all with an if statement on line 5.
+   * Method a has a second if statement on the same line.
+   */
+  static byte[] sharedLine(String... methods) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, "Shared", null, "java/lang/Object", null);
+    for (String name : methods) {
+      MethodVisitor mv = writer.visitMethod(Opcodes.ACC_STATIC, name, "(I)I", null, null);
+      mv.visitCode();
+      Label start = new Label();
+      mv.visitLabel(start);
+      mv.visitLineNumber(5, start);
+      for (int i = name.equals("a") ? 2 : 1; i > 0; i--) {
+        Label skip = new Label();
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitJumpInsn(Opcodes.IFLE, skip);
+        mv.visitIincInsn(0, -1);
+        mv.visitLabel(skip);
+      }
+      mv.visitVarInsn(Opcodes.ILOAD, 0);
+      mv.visitInsn(Opcodes.IRETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  /** The class files of the asm, JaCoCo and Guava jars of the classpath. */
+  static List<byte[]> corpus() throws IOException {
+    List<byte[]> classes = new ArrayList<byte[]>();
+    for (Class<?> c : new Class<?>[] {ClassReader.class, ExecutionData.class, Ascii.class}) {
+      File jar;
+      try {
+        jar = new File(c.getProtectionDomain().getCodeSource().getLocation().toURI());
+      } catch (URISyntaxException e) {
+        throw new IOException(e);
+      }
+      ZipFile zip = new ZipFile(jar);
+      try {
+        for (ZipEntry entry : Collections.list(zip.entries())) {
+          if (entry.getName().endsWith(".class")) {
+            InputStream in = zip.getInputStream(entry);
+            try {
+              classes.add(ByteStreams.toByteArray(in));
+            } finally {
+              in.close();
+            }
+          }
+        }
+      } finally {
+        zip.close();
+      }
+    }
+    return classes;
+  }
+
+  /** The lines of a mapping result with their expressions, such as "11=(0,(1,2));". */
+  static String describe(Map<Integer, BranchExp> lines) {
+    StringBuilder out = new StringBuilder();
+    for (Map.Entry<Integer, BranchExp> entry : new TreeMap<Integer, BranchExp>(lines).entrySet()) {
+      out.append(entry.getKey()).append('=');
+      describe(entry.getValue(), out);
+      out.append(';');
+    }
+    return out.toString();
+  }
+
+  private static void describe(CovExp exp, StringBuilder out) {
+    if (exp instanceof ProbeExp) {
+      out.append(((ProbeExp) exp).getProbeId());
+    } else {
+      out.append('(');
+      boolean first = true;
+      for (CovExp branch : ((BranchExp) exp).getBranches()) {
+        if (!first) {
+          out.append(',');
+        }
+        describe(branch, out);
+        first = false;
+      }
+      out.append(')');
+    }
+  }
+
+  /**
+   * Assert that two mappings have the same lines, branches and masks, and cover the same
+   * branches when any one of the first probeCount probes is executed.
+   */
+  static void assertSameMapping(BranchMapping actual, BranchMapping expected, int probeCount) {
+    assertThat(actual.getLineCount()).isEqualTo(expected.getLineCount());
+    assertThat(actual.getTotalBranchCount()).isEqualTo(expected.getTotalBranchCount());
+    for (int i = 0; i < expected.getLineCount(); i++) {
+      assertThat(actual.getLine(i)).isEqualTo(expected.getLine(i));
+      assertThat(actual.getFirstBranch(i)).isEqualTo(expected.getFirstBranch(i));
+      assertThat(actual.getBranchCount(i)).isEqualTo(expected.getBranchCount(i));
+      assertThat(actual.indexOfLine(expected.getLine(i))).isEqualTo(i);
+    }
+    for (int b = 0; b < expected.getTotalBranchCount(); b++) {
+      assertThat(actual.getMaskStart(b)).isEqualTo(expected.getMaskStart(b));
+      assertThat(actual.getMaskLength(b)).isEqualTo(expected.getMaskLength(b));
+      for (int k = 0; k < expected.getMaskLength(b); k++) {
+        assertThat(actual.getMaskWord(b, k)).isEqualTo(expected.getMaskWord(b, k));
+      }
+    }
+    assertThat(actual.indexOfLine(-5)).isLessThan(0);
+    assertThat(actual.indexOfLine(1000)).isLessThan(0);
+
+    for (int probe = 0; probe < probeCount; probe++) {
+      boolean[] probes = new boolean[probeCount];
+      probes[probe] = true;
+      long[] words = CompiledMapping.pack(probes);
+      long[] covered = new long[(expected.getTotalBranchCount() + 63) >>> 6];
+      actual.evaluate(words, covered);
+      for (int b = 0; b < expected.getTotalBranchCount(); b++) {
+        assertThat(actual.isCovered(b, words)).isEqualTo(expected.isCovered(b, words));
+        assertThat((covered[b >>> 6] & (1L << b)) != 0).isEqualTo(expected.isCovered(b, words));
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package org.jacoco.extra.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.data.CRC64;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import me.zhihan.jacoco.internal.MyC;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestImpactIndexTest {
+  private CompiledMapping mapping;
+  private TestImpactIndex index;
+
+  @Before
+  public void setup() {
+    BranchExp line1 = new ProbeExp(0).branchExp();
+    line1.add(new ProbeExp(1));
+    BranchExp line2 = new ProbeExp(2).branchExp();
+    line2.add(new ProbeExp(70));
+    Map<Integer, BranchExp> lines = new HashMap<Integer, BranchExp>();
+    lines.put(10, line1);
+    lines.put(20, line2);
+    mapping = CompiledMapping.compile(lines);
+
+    boolean[] first = new boolean[71];
+    first[1] = true;
+    boolean[] second = new boolean[71];
+    second[70] = true;
+    index = new TestImpactIndex(Arrays.asList("first", "second", "none"));
+    index.addClass("a/A", mapping, Arrays.asList(first, second, null));
+  }
+
+  @Test
+  public void testSessionsOfLines() {
+    assertThat(index.getSessions("a/A", new int[] {10}).toString()).isEqualTo("{0}");
+    assertThat(index.getSessions("a/A", new int[] {20}).toString()).isEqualTo("{1}");
+    assertThat(index.getSessions("a/A", new int[] {10, 20}).toString()).isEqualTo("{0, 1}");
+    // Lines without branches and unknown classes select no session.
+    assertThat(index.getSessions("a/A", new int[] {15}).isEmpty()).isTrue();
+    assertThat(index.getSessions("a/B", new int[] {10}).isEmpty()).isTrue();
+    assertThat(index.getSessionId(1)).isEqualTo("second");
+  }
+
+  @Test
+  public void testChangedClasses() {
+    ExecutionDataStore store = new ExecutionDataStore();
+    boolean[] probes = new boolean[71];
+    probes[2] = true;
+    store.put(new ExecutionData(42L, "b/B", probes));
+    index.addClass(42L, "b/B", mapping, Arrays.asList(new ExecutionDataStore(), store,
+        store));
+
+    Map<String, int[]> changed = new HashMap<String, int[]>();
+    changed.put("a/A", new int[] {10});
+    changed.put("b/B", new int[] {20});
+    assertThat(index.getSessions(changed).toString()).isEqualTo("{0, 1, 2}");
+  }
+
+  @Test
+  public void testManySessions() {
+    int sessions = 130;
+    TestImpactIndex large = new TestImpactIndex(Arrays.asList(new String[sessions]));
+    boolean[] probes = new boolean[71];
+    probes[0] = true;
+    boolean[][] data = new boolean[sessions][];
+    data[129] = probes;
+    large.addClass("a/A", mapping, Arrays.asList(data));
+    assertThat(large.getSessions("a/A", new int[] {10}).toString()).isEqualTo("{129}");
+  }
+
+  @Test
+  public void testUnindexedLines() {
+    assertThat(index.getUnindexedLines("a/A", new int[] {10, 15, 20})).isEqualTo(new int[] {15});
+    assertThat(index.getUnindexedLines("a/B", new int[] {10})).isEqualTo(new int[] {10});
+
+    Map<String, int[]> changed = new HashMap<String, int[]>();
+    changed.put("a/A", new int[] {10, 20});
+    changed.put("a/B", new int[] {5});
+    Map<String, int[]> unindexed = index.getUnindexedLines(changed);
+    assertThat(unindexed.keySet()).containsExactly("a/B");
+    assertThat(unindexed.get("a/B")).isEqualTo(new int[] {5});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSessionCount() {
+    index.addClass("b/B", mapping, Arrays.asList(new boolean[71], new boolean[71]));
+  }
+
+  @Test
+  public void testAllLinesSameAsJacoco() throws Exception {
+    // One session for each combination of the 6 probes of MyC.
+    byte[] bytes = TestClasses.bytesOf(MyC.class);
+    long classId = CRC64.checksum(bytes);
+    String className = "me/zhihan/jacoco/internal/MyC";
+    List<String> ids = new ArrayList<String>();
+    List<boolean[]> sessions = new ArrayList<boolean[]>();
+    for (int s = 0; s < 64; s++) {
+      ids.add("s" + s);
+      boolean[] probes = new boolean[6];
+      for (int p = 0; p < 6; p++) {
+        probes[p] = (s & (1 << p)) != 0;
+      }
+      sessions.add(probes);
+    }
+    TestImpactIndex all = new TestImpactIndex(ids);
+    all.addClass(new ClassReader(bytes), sessions);
+
+    BitSet[] expected = new BitSet[30];
+    for (int s = 0; s < 64; s++) {
+      ExecutionDataStore store = new ExecutionDataStore();
+      store.put(new ExecutionData(classId, className, sessions.get(s)));
+      CoverageBuilder builder = new CoverageBuilder();
+      new Analyzer(store, builder).analyzeClass(bytes, className);
+      IClassCoverage coverage = builder.getClasses().iterator().next();
+      for (int line = coverage.getFirstLine(); line <= coverage.getLastLine(); line++) {
+        int status = coverage.getLine(line).getStatus();
+        if (status != ICounter.EMPTY && expected[line] == null) {
+          expected[line] = new BitSet();
+        }
+        if (status == ICounter.FULLY_COVERED || status == ICounter.PARTLY_COVERED) {
+          expected[line].set(s);
+        }
+      }
+    }
+    for (int line = 0; line < expected.length; line++) {
+      int[] changed = {line};
+      if (expected[line] == null) {
+        assertThat(all.getUnindexedLines(className, changed)).isEqualTo(changed);
+      } else {
+        // Line 4, the constructor, and the lines without branches are indexed too.
+        assertThat(all.getUnindexedLines(className, changed)).isEmpty();
+        assertThat(all.getSessions(className, changed)).isEqualTo(expected[line]);
+      }
+    }
+    assertThat(expected[4]).isNotNull();
+    assertThat(expected[12]).isNotNull();
+  }
+}
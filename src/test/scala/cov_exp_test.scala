@@ -1,5 +1,6 @@
 package me.zhihan.jacoco.internal
 
+import org.jacoco.extra.internal.ProbeBits
 import org.scalatest.FunSuite
 import scala.collection.mutable.ArrayBuffer
 
@@ -44,4 +45,18 @@ class CovExpTest extends FunSuite {
     assert(CovExp.evaluate (probes) (combine) == true)
   }
 
+  test("Eval packed") {
+    val a = ProbeExp(1)
+    val c = ProbeExp(70)
+    val combine = BranchExp(ArrayBuffer(a, c))
+    val probes = new Array[Boolean](71)
+    probes(70) = true
+    val packed = ProbeBits.direct(probes)
+
+    assert(CovExp.evaluate (packed) (a) === false)
+    assert(CovExp.evaluate (packed) (c) === true)
+    assert(CovExp.evaluate (packed) (combine) === true)
+    assert(CovExp.evaluate (packed) (ProbeExp(200)) === false)
+  }
+
 }
@@ -0,0 +1,94 @@
+package me.zhihan.jacoco
+
+import me.zhihan.jacoco.internal.MyC
+import org.objectweb.asm.ClassReader
+import org.jacoco.core.data.{ExecutionData, ExecutionDataStore}
+import org.jacoco.core.internal.data.CRC64
+import org.scalatest.FunSuite
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream,
+  StringWriter}
+
+class CoverageSinkTest extends FunSuite {
+  val className = classOf[MyC].getName()
+
+  def report(sink: CoverageSink) = {
+    val reader = new ClassReader(Helper.getTargetClass(className))
+    val store = new ExecutionDataStore()
+    store.put(new ExecutionData(CRC64.checksum(reader.b), className,
+      Array(true, true, false, true, false, true)))
+    val reporter = new CoverageReporter(store, sink)
+    reporter.analyzeClass(reader)
+    reporter.close()
+    CRC64.checksum(reader.b)
+  }
+
+  test("Text sink") {
+    val out = new StringWriter()
+    report(new TextSink(out))
+    val nl = System.getProperty("line.separator")
+    assert(out.toString === s"Line 11: TF${nl}Line 17: TF${nl}")
+  }
+
+  test("JSON lines sink") {
+    val out = new StringWriter()
+    val id = report(new JsonLinesSink(out))
+    val expected = "{\"class\":\"me/zhihan/jacoco/internal/MyC\",\"id\":\"" +
+      "%016x".format(id) + "\",\"lines\":[{\"line\":11,\"branches\":\"TF\"}," +
+      "{\"line\":17,\"branches\":\"TF\"}]}"
+    assert(out.toString.trim === expected)
+  }
+
+  test("Binary sink") {
+    val out = new ByteArrayOutputStream()
+    val id = report(new BinarySink(out))
+    val in = new DataInputStream(new ByteArrayInputStream(out.toByteArray))
+    assert(in.readByte() === BinarySink.CLASS)
+    assert(in.readUTF() === "me/zhihan/jacoco/internal/MyC")
+    assert(in.readLong() === id)
+    for (line <- Seq(11, 17)) {
+      assert(in.readByte() === BinarySink.LINE)
+      assert(in.readInt() === line)
+      assert(in.readInt() === 2)
+      assert(in.readByte() === 1)
+    }
+    assert(in.readByte() === BinarySink.END)
+    assert(in.read() === -1)
+  }
+
+  test("Classes are flushed as they end") {
+    val text = new StringWriter()
+    val json = new StringWriter()
+    val binary = new ByteArrayOutputStream()
+    for (sink <- Seq(new TextSink(text), new JsonLinesSink(json), new BinarySink(binary))) {
+      sink.startClass("a/B", 1L)
+      sink.line(3, Array(true, false), 2)
+      sink.endClass()
+    }
+    assert(text.toString.nonEmpty)
+    assert(json.toString.nonEmpty)
+    assert(binary.size > 0)
+  }
+
+  test("Binary sink with many branches") {
+    val out = new ByteArrayOutputStream()
+    val sink = new BinarySink(out)
+    val count = 70000
+    val covered = new Array[Boolean](count)
+    covered(count - 1) = true
+    sink.startClass("a/B", 1L)
+    sink.line(3, covered, count)
+    sink.endClass()
+    sink.close()
+
+    val in = new DataInputStream(new ByteArrayInputStream(out.toByteArray))
+    assert(in.readByte() === BinarySink.CLASS)
+    in.readUTF()
+    in.readLong()
+    assert(in.readByte() === BinarySink.LINE)
+    assert(in.readInt() === 3)
+    assert(in.readInt() === count)
+    in.skipBytes(count / 8 - 1)
+    assert(in.readUnsignedByte() === 1 << ((count - 1) & 7))
+    assert(in.readByte() === BinarySink.END)
+  }
+}
@@ -0,0 +1,70 @@
+package me.zhihan.jacoco.internal
+
+import org.jacoco.core.data.ExecutionData
+import org.jacoco.core.internal.flow.ClassProbesAdapter
+import org.jacoco.extra.internal.{ClassProbesMapper => JClassProbesMapper, CovExpPool}
+import org.objectweb.asm.ClassReader
+import org.scalatest.FunSuite
+import java.io.File
+import java.util.zip.ZipFile
+import scala.collection.JavaConversions._
+import scala.collection.mutable.Map
+
+/** Runs the Java engine and the reference Scala engine on the classes of real jars and
+  checks that they produce the same mappings. The plain, pooled and lazy modes of the Java
+  engine must also give exactly the same expressions. More jars can be given in the
+  differential.jars system property, separated by the path separator. */
+class DifferentialTest extends FunSuite {
+  // The reference engine visits probes in hash order, so the order of branches is not
+  // significant: compare expressions with their branches sorted.
+  def canonical(exp: CovExp): String = exp match {
+    case ProbeExp(id) => id.toString
+    case BranchExp(branches) => branches.map(canonical).sorted.mkString("(", ",", ")")
+  }
+
+  def canonical(lines: Map[Int, BranchExp]): Seq[(Int, String)] =
+    lines.toSeq.map { case (line, exp) => (line, canonical(exp)) }.sortBy(_._1)
+
+  // The modes of the Java engine must agree on the order of the branches too.
+  def exact(exp: CovExp): String = exp match {
+    case ProbeExp(id) => id.toString
+    case BranchExp(branches) => branches.map(exact).mkString("(", ",", ")")
+  }
+
+  def javaMode(reader: ClassReader, pool: CovExpPool, lazyMode: Boolean) = {
+    val mapper = new JClassProbesMapper(pool, lazyMode)
+    reader.accept(new ClassProbesAdapter(mapper, false), 0)
+    CovExp.fromJava(mapper.result()).toSeq.map { case (line, exp) =>
+      (line, exact(exp))
+    }.sortBy(_._1)
+  }
+
+  def jarOf(c: Class[_]) = new File(c.getProtectionDomain.getCodeSource.getLocation.toURI)
+
+  val corpus: Seq[File] = Seq(jarOf(classOf[ClassReader]), jarOf(classOf[ExecutionData])) ++
+    sys.props.get("differential.jars").toSeq.flatMap(_.split(File.pathSeparator)).map(
+      new File(_))
+
+  corpus.filter(_.isFile).foreach { jar =>
+    test(s"Same mappings for ${jar.getName}") {
+      val zip = new ZipFile(jar)
+      try {
+        var classes = 0
+        zip.entries.filter(_.getName.endsWith(".class")).foreach { entry =>
+          val in = zip.getInputStream(entry)
+          val reader = try new ClassReader(in) finally in.close()
+          val expected = new reference.Mapper().analyzeClass(reader)
+          val actual = new Mapper().analyzeClass(reader)
+          assert(canonical(actual) === canonical(expected), entry.getName)
+          val plain = javaMode(reader, null, false)
+          assert(javaMode(reader, new CovExpPool(), false) === plain, entry.getName)
+          assert(javaMode(reader, null, true) === plain, entry.getName)
+          classes += 1
+        }
+        assert(classes > 0)
+      } finally {
+        zip.close()
+      }
+    }
+  }
+}
@@ -27,6 +27,18 @@ class ExecutionDataTests extends FunSuite {
     val reporter = new CoverageReporter(store)
     reporter.analyzeClass(reader)
   }
+
+  test("Summarize a class") {
+    val store = new ExecutionDataStore()
+    val reader = new ClassReader(Helper.getTargetClass(classOf[MyC].getName()))
+    store.put(new ExecutionData(CRC64.checksum(reader.b),
+      classOf[MyC].getName(), Array(true, true, false, true, false, true)))
+
+    val summary = new CoverageReporter(store).summarizeClass(reader)
+    assert(summary.getCoveredCount === 2)
+    assert(summary.getMissedCount === 2)
+    assert(summary.getMethodName(1) === "f")
+  }
 }
 
 class HelperTests extends FunSuite {
@@ -62,5 +74,14 @@ class HelperTests extends FunSuite {
       new ClassReader(Helper.getTargetClass(className)))
 
   }
-}
 
+  test("Classes are defined once") {
+    val className = classOf[MyName].getName()
+    Helper.addDefinitions(Seq(className))
+    val runtimeData = Helper.start
+    val clazz = Helper.classLoader.loadClass(className)
+    assert(clazz.getClassLoader === Helper.classLoader)
+    assert(Helper.classLoader.loadClass(className) eq clazz)
+    Helper.shutdown
+  }
+}
@@ -0,0 +1,53 @@
+package me.zhihan.jacoco
+
+import me.zhihan.jacoco.internal.{MyC, MyI}
+import org.jacoco.extra.internal.BranchCoverage
+import com.google.common.io.ByteStreams
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import org.scalatest.FunSuite
+
+class LiveCoverageTest extends FunSuite {
+  test("Snapshots follow a running program") {
+    val className = classOf[MyC].getName()
+    val loader = new Helper.MemoryClassLoader(getClass().getClassLoader())
+    loader.addDefinition(className, Helper.instrument(className))
+    val data = Helper.start
+    try {
+      val live = new LiveCoverage(data)
+      live.register(ByteStreams.toByteArray(Helper.getTargetClass(className)))
+      val obj = loader.loadClass(className).getDeclaredConstructor().newInstance().asInstanceOf[MyI]
+      val name = className.replace('.', '/')
+
+      obj.f(-1)
+      val first = live.snapshot()(name)
+      assert(first.getCoveredCount === 2)
+
+      obj.f(1)
+      val second = live.snapshot()(name)
+      assert(second.getCoveredCount === 4)
+      // Snapshots do not reset the data, and unchanged classes keep their result.
+      assert(live.snapshot()(name) eq second)
+
+      val latch = new CountDownLatch(2)
+      live.start(10) { coverage: Map[String, BranchCoverage] =>
+        if (coverage(name).getCoveredCount == 4) latch.countDown()
+      }
+      assert(latch.await(5, TimeUnit.SECONDS))
+      live.stop()
+
+      // A failing listener does not stop the snapshots.
+      val errors = new AtomicInteger()
+      val calls = new CountDownLatch(3)
+      live.start(10, e => errors.incrementAndGet()) { coverage: Map[String, BranchCoverage] =>
+        calls.countDown()
+        throw new IllegalStateException("listener failed")
+      }
+      assert(calls.await(5, TimeUnit.SECONDS))
+      live.stop()
+      assert(errors.get >= 2)
+    } finally {
+      Helper.shutdown
+    }
+  }
+}
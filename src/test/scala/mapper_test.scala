@@ -40,6 +40,11 @@ class MethodMapperTest extends FunSuite {
     mapper
   }
 
+  test("The converted result is computed once") {
+    val mapper = debug(ifBranchMethod)
+    assert(mapper.lineToBranchExp eq mapper.lineToBranchExp)
+  }
+
   test("Linear Sequence with return map") {
     val result = analyze(linearSeqMethod)
     assert(!result.contains(1001) && !result.contains(1002))
@@ -300,7 +305,7 @@ class MethodMapperTest extends FunSuite {
   test("Method with null check early return") {
     val result = analyze(nullTestMethod)
     assert(result(6).branches.contains(ProbeExp(0)) &&
-      result(6).branches.contains(BranchExp(ArrayBuffer(ProbeExp(2), ProbeExp(1)))))
+      result(6).branches.contains(BranchExp(ArrayBuffer(ProbeExp(1), ProbeExp(2)))))
     assert(result(10).branches.contains(ProbeExp(1)) &&
       result(10).branches.contains(ProbeExp(2)))
   }